@@ -0,0 +1,209 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotation;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotationInterval;
+import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotationQualifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Transfers the annotations of a sequence onto another sequence that contains a part of it, for example from a vector
+ * +onto one of its fragments, or from a fragment onto the finished construct.
+ * The annotations are stored in an interval tree, so the annotations of each part are found without going through all
+ * +of them. Annotations spanning the origin of a circular sequence are handled as a single piece, and are split again
+ * +if they end up spanning the origin of a circular target.
+ * Annotations reaching over the ends of the part are truncated to the part, the same way Geneious truncates them when
+ * +it digests a sequence.
+ */
+public class AnnotationMapper {
+
+    /**
+     * @param annotations The annotations of the source sequence.
+     * @param sourceLength The length of the source sequence.
+     * @param sourceCircular Whether the source sequence is circular.
+     * @param excludedTypes Types of annotations that are not transferred.
+     */
+    public AnnotationMapper(List<SequenceAnnotation> annotations, int sourceLength, boolean sourceCircular, String... excludedTypes) {
+        this.sourceLength = sourceLength;
+        this.sourceCircular = sourceCircular;
+        Set<String> excluded = new HashSet<String>(Arrays.asList(excludedTypes));
+        for (SequenceAnnotation annotation : annotations) {
+            if (excluded.contains(annotation.getType()) || annotation.getIntervals().isEmpty()) {
+                continue;
+            }
+            Feature feature = new Feature(annotation);
+            tree.add(feature.getStart(), feature.getEnd(), feature);
+        }
+    }
+
+    /**
+     * Transfers the annotations lying within a part of the source sequence. Annotations only partly within the part are
+     * +truncated: intervals outside of it are dropped and intervals reaching over its ends are cut at them.
+     *
+     * @param sourceStart The 0 based start of the part on the source. For circular sources the part can reach over
+     *                    +the origin.
+     * @param length The length of the part.
+     * @param targetOffset The 0 based position of the part on the target.
+     * @param targetLength The length of the target sequence.
+     * @param targetCircular Whether the target sequence is circular.
+     * @param results The transferred annotations are added to this list. The original annotations are not changed.
+     */
+    public void map(int sourceStart, int length, int targetOffset, int targetLength, boolean targetCircular, List<SequenceAnnotation> results) {
+        List<Feature> features = new ArrayList<Feature>();
+        tree.findOverlapping(sourceStart, sourceStart + length, features);
+        for (Feature feature : features) {
+            addMapped(feature, sourceStart, sourceStart + length, targetOffset - sourceStart, targetLength, targetCircular, results);
+        }
+        if (sourceCircular && sourceStart + length > sourceLength) {
+            //The part reaches over the origin, so it also contains the annotations at the start of the source.
+            features.clear();
+            tree.findOverlapping(sourceStart - sourceLength, sourceStart + length - sourceLength, features);
+            for (Feature feature : features) {
+                addMapped(feature, sourceStart - sourceLength, sourceStart + length - sourceLength, targetOffset - sourceStart + sourceLength, targetLength, targetCircular, results);
+            }
+        } else if (sourceCircular) {
+            //Annotations spanning the origin run past the end of the source, and may reach into the part from there.
+            features.clear();
+            tree.findOverlapping(sourceStart + sourceLength, sourceStart + length + sourceLength, features);
+            for (Feature feature : features) {
+                addMapped(feature, sourceStart + sourceLength, sourceStart + length + sourceLength, targetOffset - sourceStart - sourceLength, targetLength, targetCircular, results);
+            }
+        }
+    }
+
+    /**
+     * Creates an annotation marking where a part lies on the target.
+     *
+     * @param name The name of the part.
+     * @param targetOffset The 0 based position of the part on the target.
+     * @param length The length of the part.
+     * @param targetLength The length of the target sequence.
+     * @param targetCircular Whether the target sequence is circular.
+     * @return The misc_feature annotation, split at the origin of a circular target if the part reaches over it.
+     */
+    public static SequenceAnnotation markPart(String name, int targetOffset, int length, int targetLength, boolean targetCircular) {
+        List<SequenceAnnotationInterval> intervals = new ArrayList<SequenceAnnotationInterval>(2);
+        place(targetOffset, targetOffset + length, SequenceAnnotationInterval.Direction.leftToRight, targetLength, targetCircular, intervals);
+        return new SequenceAnnotation(name, SequenceAnnotation.TYPE_MISC_FEATURE, intervals.toArray(new SequenceAnnotationInterval[intervals.size()]));
+    }
+
+    //Maps the intervals of a feature within [partStart, partEnd) on the source, truncating them to it.
+    private void addMapped(Feature feature, int partStart, int partEnd, int shift, int targetLength, boolean targetCircular, List<SequenceAnnotation> results) {
+        List<SequenceAnnotationInterval> intervals = new ArrayList<SequenceAnnotationInterval>(feature.starts.length);
+        for (int i = 0; i < feature.starts.length; i++) {
+            int start = Math.max(feature.starts[i], partStart);
+            int end = Math.min(feature.ends[i], partEnd);
+            if (start >= end) {
+                continue; //This interval lies outside of the part.
+            }
+            if (!place(start + shift, end + shift, feature.directions[i], targetLength, targetCircular, intervals)) {
+                return; //Does not fit onto a linear target.
+            }
+        }
+        if (intervals.isEmpty()) {
+            return;
+        }
+        SequenceAnnotation annotation = feature.annotation;
+        SequenceAnnotation mapped = new SequenceAnnotation(annotation.getName(), annotation.getType(), intervals.toArray(new SequenceAnnotationInterval[intervals.size()]));
+        for (SequenceAnnotationQualifier qualifier : annotation.getQualifiers()) {
+            mapped.addQualifier(qualifier.getName(), qualifier.getValue());
+        }
+        results.add(mapped);
+    }
+
+    /**
+     * Places the 0 based, half open range [from, to) on the target as 1 based intervals, wrapped around the origin of a
+     * +circular target and split there if it reaches over it.
+     *
+     * @return False if the range does not fit onto a linear target.
+     */
+    private static boolean place(int from, int to, SequenceAnnotationInterval.Direction direction, int targetLength, boolean targetCircular, List<SequenceAnnotationInterval> intervals) {
+        if (targetCircular) {
+            int length = to - from;
+            from = ((from % targetLength) + targetLength) % targetLength;
+            to = from + length;
+        } else if (from < 0 || to > targetLength) {
+            return false;
+        }
+        if (to <= targetLength) {
+            intervals.add(new SequenceAnnotationInterval(from + 1, to, direction));
+        } else if (direction.isDirectedLeft()) { //Split at the origin, keeping the order of reading.
+            intervals.add(new SequenceAnnotationInterval(1, to - targetLength, direction));
+            intervals.add(new SequenceAnnotationInterval(from + 1, targetLength, direction));
+        } else {
+            intervals.add(new SequenceAnnotationInterval(from + 1, targetLength, direction));
+            intervals.add(new SequenceAnnotationInterval(1, to - targetLength, direction));
+        }
+        return true;
+    }
+
+    /**
+     * An annotation with its intervals as 0 based, half open ranges. For annotations spanning the origin of a circular
+     * +source the pieces at the end and at the start are joined, and the range runs past the end of the source.
+     */
+    private final class Feature {
+        Feature(SequenceAnnotation annotation) {
+            this.annotation = annotation;
+            List<SequenceAnnotationInterval> intervals = annotation.getIntervals();
+            int size = intervals.size();
+            int endPiece = -1;
+            int startPiece = -1;
+            if (sourceCircular && size > 1) {
+                for (int i = 0; i < size; i++) {
+                    if (intervals.get(i).getMaximumIndex() == sourceLength) {
+                        endPiece = i;
+                    } else if (intervals.get(i).getMinimumIndex() == 1) {
+                        startPiece = i;
+                    }
+                }
+            }
+            boolean joined = endPiece >= 0 && startPiece >= 0;
+            starts = new int[joined ? size - 1 : size];
+            ends = new int[starts.length];
+            directions = new SequenceAnnotationInterval.Direction[starts.length];
+            int j = 0;
+            for (int i = 0; i < size; i++) {
+                if (joined && i == startPiece) {
+                    continue;
+                }
+                SequenceAnnotationInterval interval = intervals.get(i);
+                starts[j] = interval.getMinimumIndex() - 1;
+                ends[j] = interval.getMaximumIndex();
+                if (joined && i == endPiece) {
+                    ends[j] = sourceLength + intervals.get(startPiece).getMaximumIndex();
+                }
+                directions[j] = interval.getDirection();
+                j++;
+            }
+        }
+
+        int getStart() {
+            int start = Integer.MAX_VALUE;
+            for (int s : starts) {
+                start = Math.min(start, s);
+            }
+            return start;
+        }
+
+        int getEnd() {
+            int end = Integer.MIN_VALUE;
+            for (int e : ends) {
+                end = Math.max(end, e);
+            }
+            return end;
+        }
+
+        final SequenceAnnotation annotation;
+        final int[] starts;
+        final int[] ends;
+        final SequenceAnnotationInterval.Direction[] directions;
+    }
+
+    private final int sourceLength;
+    private final boolean sourceCircular;
+    private final IntervalTree<Feature> tree = new IntervalTree<Feature>();
+}
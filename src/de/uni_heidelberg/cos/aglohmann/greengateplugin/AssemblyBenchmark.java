@@ -0,0 +1,203 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the speed of the assembly steps on synthetic GreenGate reactions, so changes to the assembler can be
+ * +compared. Run it from the command line:
+ * java de.uni_heidelberg.cos.aglohmann.greengateplugin.AssemblyBenchmark [--quick]
+ *
+ * Each scenario is a destination vector and a set of entry modules adding up to a construct of the given size, made
+ * +by the PartSetGenerator. For every step the throughput and the bytes allocated per operation are reported, after a
+ * +warm up so the JIT compiler has done its work. The steps measured are the site scan and digestion done for every
+ * +part, the matching of the overhangs and ordering of the fragments (the AssemblyPlanner), joining the fragments (the
+ * +ConstructAssembler, without the shared partial assemblies), moving the features of every fragment onto the construct
+ * +(the adapter of the FragmentAssembler), and the whole assembly without the digest cache or
+ * +the shared partial assemblies. The Geneious documents themselves cannot be created outside of Geneious, so the plain
+ * +sequence records of the command line tools are used instead.
+ */
+public class AssemblyBenchmark {
+
+    public static void main(String[] args) {
+        boolean quick = args.length > 0 && args[0].equals("--quick");
+        AssemblyBenchmark benchmark = new AssemblyBenchmark(quick ? 200 : 1000, quick ? 500 : 3000);
+        System.out.println(String.format(Locale.US, "%-22s %-12s %14s %14s %16s", "scenario", "step", "ops/s", "us/op", "bytes/op"));
+        int[][] scenarios = {{5000, 2}, {20000, 6}, {50000, 10}, {200000, 25}, {500000, 50}};
+        for (int[] scenario : scenarios) {
+            benchmark.run(scenario[0], scenario[1]);
+        }
+    }
+
+    /**
+     * @param warmupMillis How long each step runs before it is measured.
+     * @param measureMillis How long each step is measured.
+     */
+    public AssemblyBenchmark(long warmupMillis, long measureMillis) {
+        this.warmupMillis = warmupMillis;
+        this.measureMillis = measureMillis;
+    }
+
+    /**
+     * Measures all steps on one scenario and prints the results.
+     *
+     * @param constructLength The approximate length of the assembled construct.
+     * @param numModules The number of entry modules.
+     */
+    public void run(int constructLength, int numModules) {
+        final Enzyme enzyme = EnzymeRegistry.getCheckedInstance().getDefault();
+        final DigestEngine engine = new DigestEngine(enzyme);
+        final SiteScanner scanner = enzyme.scanner();
+        final PartSetGenerator.Construct parts = new PartSetGenerator(enzyme, constructLength + numModules).generate("construct", constructLength, numModules);
+        final List<SequenceRecord> records = parts.getParts();
+        final List<Fragment> fragments = new ArrayList<Fragment>();
+        for (SequenceRecord record : records) {
+            for (Fragment fragment : engine.digest(record.getSequence(), true)) {
+                if (!fragment.containsSite()) {
+                    fragments.add(fragment);
+                }
+            }
+        }
+        final List<Fragment> shuffled = new ArrayList<Fragment>(fragments.subList(1, fragments.size()));
+        Collections.shuffle(shuffled, new Random(1));
+        final FragmentAssembler assembler = new FragmentAssembler(enzyme, new DigestCache(0, null));
+        //The ligation and the annotations are measured on the ConstructAssembler and the adapter the assembly uses. The
+        //+ligation alone is measured without moving any features.
+        final FragmentAssembler.RecordAdapter adapter = new FragmentAssembler.RecordAdapter();
+        final ConstructAssembler<SequenceRecord, SequenceFeature> ligator = new ConstructAssembler<SequenceRecord, SequenceFeature>(enzyme, new DigestCache(0, null), new AssemblyMetrics(), new ConstructAssembler.Adapter<SequenceRecord, SequenceFeature>() {
+            public String getName(SequenceRecord part) {return adapter.getName(part);}
+
+            public CharSequence getSequence(SequenceRecord part) {return adapter.getSequence(part);}
+
+            public boolean isCircular(SequenceRecord part) {return adapter.isCircular(part);}
+
+            public void mapFeatures(SequenceRecord part, Fragment fragment, int offset, int targetLength, boolean targetCircular, List<SequenceFeature> results) {
+            }
+        });
+        List<List<ConstructAssembler.Placed<SequenceRecord>>> selected = new ArrayList<List<ConstructAssembler.Placed<SequenceRecord>>>(records.size());
+        try {
+            selected.add(ligator.selectFragments(parts.getDestination()));
+            for (SequenceRecord module : parts.getModules()) {
+                selected.add(ligator.selectFragments(module));
+            }
+        } catch (AssemblyException e) {
+            throw new IllegalStateException(e);
+        }
+        final AssemblyPlan<ConstructAssembler.Placed<SequenceRecord>> plan = ligator.plan(selected);
+        final int planLength = ligator.ligate(plan).getSequence().length();
+        String scenario = (constructLength / 1000) + " kb, " + numModules + " modules";
+
+        measure(scenario, "scan", new Step() {
+            public long run() {
+                long found = 0;
+                for (SequenceRecord record : records) {
+                    found += scanner.scan(record.getSequence()).size();
+                }
+                return found;
+            }
+        });
+        measure(scenario, "digest", new Step() {
+            public long run() {
+                long found = 0;
+                for (SequenceRecord record : records) {
+                    found += engine.digest(record.getSequence(), true).size();
+                }
+                return found;
+            }
+        });
+        measure(scenario, "match", new Step() {
+            public long run() {
+                AssemblyPlanner<Fragment> planner = new AssemblyPlanner<Fragment>();
+                planner.setStart(fragments.get(0), fragments.get(0).getLeftOverhang(), fragments.get(0).getRightOverhang());
+                for (Fragment fragment : shuffled) {
+                    planner.add(fragment, fragment.getLeftOverhang(), fragment.getRightOverhang());
+                }
+                return planner.plan().getParts().size();
+            }
+        });
+        measure(scenario, "ligate", new Step() {
+            public long run() {
+                ligator.clearSharedAssemblies(); //Otherwise every run after the first only finds the shared prefixes.
+                return ligator.ligate(plan).getSequence().length();
+            }
+        });
+        measure(scenario, "annotations", new Step() {
+            public long run() {
+                long found = 0;
+                List<SequenceFeature> results = new ArrayList<SequenceFeature>();
+                int offset = 0;
+                for (OverhangIndex.Entry<ConstructAssembler.Placed<SequenceRecord>> part : plan.getParts()) {
+                    Fragment fragment = part.getItem().getFragment();
+                    results.clear();
+                    adapter.mapFeatures(part.getItem().getPart(), fragment, offset, planLength, true, results);
+                    found += results.size();
+                    offset += fragment.getLength() - fragment.getRightOverhang().length();
+                }
+                return found;
+            }
+        });
+        measure(scenario, "assembly", new Step() {
+            public long run() {
+                assembler.clearSharedAssemblies(); //Otherwise every run after the first only finds the shared prefixes.
+                try {
+                    return assembler.assemble("construct", parts.getDestination(), parts.getModules()).getLength();
+                } catch (AssemblyException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs a step repeatedly, first to warm up and then to measure it, and prints the result.
+     */
+    private void measure(String scenario, String name, Step step) {
+        repeat(step, warmupMillis);
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+        long operations = repeat(step, measureMillis);
+        long elapsed = System.nanoTime() - start;
+        long allocated = getAllocatedBytes() - allocatedBefore;
+        double seconds = elapsed / 1e9;
+        System.out.println(String.format(Locale.US, "%-22s %-12s %14.1f %14.1f %16s", scenario, name, operations / seconds,
+                elapsed / 1e3 / operations, allocatedBefore < 0 ? "n/a" : String.valueOf(allocated / operations)));
+    }
+
+    private long repeat(Step step, long millis) {
+        long end = System.nanoTime() + millis * 1000000L;
+        long operations = 0;
+        do {
+            sink += step.run();
+            operations++;
+        } while (System.nanoTime() < end);
+        return operations;
+    }
+
+    //The bytes allocated by the current thread, or -1 if the JVM cannot tell.
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * One step of the assembly. Returns a value derived from its result, so the JIT compiler cannot leave out the work.
+     */
+    private interface Step {
+        long run();
+    }
+
+    private final long warmupMillis;
+    private final long measureMillis;
+    private volatile long sink;
+}
@@ -0,0 +1,18 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+/**
+ * Thrown when a construct cannot be assembled outside of Geneious, for example because a part does not give a
+ * +fragment with two overhangs, or the fragments do not close into a circle.
+ */
+public class AssemblyException extends Exception {
+
+    public AssemblyException(String message) {
+        super(message);
+    }
+
+    public AssemblyException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    private static final long serialVersionUID = 1L;
+}
@@ -0,0 +1,190 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timings and counters of an assembly run, to find out where the time of a slow run goes.
+ * The stages of the documents are run in parallel, so their times are added up over all the threads and together can
+ * +be longer than the wall time of the whole run. All methods can be called from several threads at once.
+ */
+public class AssemblyMetrics {
+
+    /**
+     * The stages of an assembly.
+     */
+    public enum Stage {
+        PREFLIGHT("pre-flight check"),
+        DIGEST("digest"),
+        SELECTION("fragment selection"),
+        OVERHANGS("overhang extraction"),
+        LIGATION("ligation"),
+        CLEANUP("annotation cleanup");
+
+        Stage(String displayName) {
+            this.displayName = displayName;
+        }
+
+        public String getDisplayName() {return displayName;}
+
+        private final String displayName;
+    }
+
+    /**
+     * Starts the metrics of a run. The wall time of the run is counted from here.
+     */
+    public AssemblyMetrics() {
+    }
+
+    /**
+     * Adds time spent in a stage.
+     *
+     * @param stage The stage.
+     * @param startNanos The System.nanoTime() at the start of the stage. The stage ends now.
+     */
+    public void addTime(Stage stage, long startNanos) {
+        stageNanos.addAndGet(stage.ordinal(), System.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return The time spent in a stage, in milliseconds.
+     */
+    public double getTime(Stage stage) {
+        return stageNanos.get(stage.ordinal()) / 1e6;
+    }
+
+    /**
+     * Marks the end of the run, stopping the wall time.
+     */
+    public void finish() {
+        if (endNanos == 0) {
+            endNanos = System.nanoTime();
+        }
+    }
+
+    /**
+     * @return The wall time of the run in milliseconds, up to now if the run has not finished.
+     */
+    public double getWallTime() {
+        return ((endNanos == 0 ? System.nanoTime() : endNanos) - startNanos) / 1e6;
+    }
+
+    public void addBasesProcessed(long bases) {basesProcessed.addAndGet(bases);}
+
+    /**
+     * @return The number of nucleotides digested, one byte each.
+     */
+    public long getBasesProcessed() {return basesProcessed.get();}
+
+    /**
+     * Counts a set of fragments ligated into a construct.
+     *
+     * @param joins The number of ligations in the construct.
+     */
+    public void addLigationAttempt(int joins) {
+        ligationAttempts.incrementAndGet();
+        this.joins.addAndGet(joins);
+    }
+
+    /**
+     * Counts a set of fragments that did not fit together, so nothing was ligated. They are kept apart from the
+     * +ligation attempts, so the joins per construct are not skewed by them.
+     */
+    public void addFailedAttempt() {failedAttempts.incrementAndGet();}
+
+    public long getLigationAttempts() {return ligationAttempts.get();}
+
+    public long getFailedAttempts() {return failedAttempts.get();}
+
+    public long getJoins() {return joins.get();}
+
+    /**
+     * Counts the joins of a construct taken from the shared partial assemblies, whether they had been built before
+     * +or not.
+     */
+    public void addPrefixJoins(int joins) {prefixJoins.addAndGet(joins);}
+
+    /**
+     * Counts a join of a shared partial assembly that had to be built.
+     */
+    public void addPrefixJoinBuilt() {prefixJoinsBuilt.incrementAndGet();}
+
+    public long getPrefixJoins() {return prefixJoins.get();}
+
+    public long getPrefixJoinsBuilt() {return prefixJoinsBuilt.get();}
+
+    /**
+     * Counts a digest of the run found in the digest cache, or being digested for another caller already.
+     */
+    public void addCacheHit() {cacheHits.incrementAndGet();}
+
+    /**
+     * Counts a digest the run had to do itself.
+     */
+    public void addCacheMiss() {cacheMisses.incrementAndGet();}
+
+    public long getCacheHits() {return cacheHits.get();}
+
+    public long getCacheMisses() {return cacheMisses.get();}
+
+    /**
+     * Adds a warning about the run, for example overhangs that may be ligated by mistake. The warnings are part of
+     * +the summary.
+     */
+    public void addWarning(String warning) {warnings.add(warning);}
+
+    /**
+     * @return The warnings, in the order they were added.
+     */
+    public List<String> getWarnings() {
+        synchronized (warnings) {
+            return new ArrayList<String>(warnings);
+        }
+    }
+
+    /**
+     * @return A summary of the metrics, one line each, followed by the warnings.
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.US, "Total: %.1f ms\n", getWallTime()));
+        for (Stage stage : Stage.values()) {
+            summary.append(String.format(Locale.US, "%s: %.1f ms\n", stage.getDisplayName(), getTime(stage)));
+        }
+        summary.append("Bases processed: ").append(getBasesProcessed()).append("\n");
+        summary.append("Ligation attempts: ").append(getLigationAttempts()).append(" (").append(getJoins()).append(" joins)\n");
+        if (getFailedAttempts() > 0) {
+            summary.append("Failed attempts: ").append(getFailedAttempts()).append("\n");
+        }
+        if (getPrefixJoins() > 0) { //Only constructs built from shared partial assemblies have any.
+            summary.append("Shared prefixes: ").append(getPrefixJoinsBuilt()).append(" of ").append(getPrefixJoins()).append(" joins built\n");
+        }
+        summary.append("Digest cache: ").append(getCacheHits()).append(" hits, ").append(getCacheMisses()).append(" misses");
+        for (String warning : getWarnings()) {
+            summary.append("\nWarning: ").append(warning);
+        }
+        return summary.toString();
+    }
+
+    @Override
+    public String toString() {
+        return getSummary();
+    }
+
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos = 0;
+    private final AtomicLongArray stageNanos = new AtomicLongArray(Stage.values().length);
+    private final AtomicLong basesProcessed = new AtomicLong();
+    private final AtomicLong ligationAttempts = new AtomicLong();
+    private final AtomicLong joins = new AtomicLong();
+    private final AtomicLong failedAttempts = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong prefixJoins = new AtomicLong();
+    private final AtomicLong prefixJoinsBuilt = new AtomicLong();
+    private final List<String> warnings = Collections.synchronizedList(new ArrayList<String>());
+}
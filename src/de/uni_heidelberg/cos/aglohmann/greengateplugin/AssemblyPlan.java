@@ -0,0 +1,37 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.List;
+
+/**
+ * The order in which a set of fragments is ligated. The fragments are listed from the start fragment (usually the
+ * +destination vector) onwards, each one ligated with its left end to the right end of the one before it.
+ *
+ * @param <T> The type of the fragments.
+ */
+public class AssemblyPlan<T> {
+
+    public AssemblyPlan(List<OverhangIndex.Entry<T>> parts, boolean circular, List<T> unused) {
+        this.parts = parts;
+        this.circular = circular;
+        this.unused = unused;
+    }
+
+    /**
+     * @return The fragments in the order of ligation, with their overhangs.
+     */
+    public List<OverhangIndex.Entry<T>> getParts() {return parts;}
+
+    /**
+     * @return True if the right end of the last fragment closes the construct with the left end of the first one.
+     */
+    public boolean isCircular() {return circular;}
+
+    /**
+     * @return The fragments that could not be placed into the construct.
+     */
+    public List<T> getUnused() {return unused;}
+
+    private final List<OverhangIndex.Entry<T>> parts;
+    private final boolean circular;
+    private final List<T> unused;
+}
@@ -0,0 +1,81 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Works out the complete order of fragments in a construct from their overhangs, before anything is ligated.
+ * Starting from the first fragment the chain is followed to the right until it closes into a circle or runs out of
+ * +matching fragments. In the later case the chain is extended to the left of the first fragment as well, and the
+ * +result is a linear construct.
+ *
+ * @param <T> The type of the fragments.
+ */
+public class AssemblyPlanner<T> {
+
+    /**
+     * Sets the fragment the construct is built around. (The destination vector.)
+     */
+    public void setStart(T item, Overhang leftOverhang, Overhang rightOverhang) {
+        start = new OverhangIndex.Entry<T>(item, leftOverhang, rightOverhang);
+    }
+
+    /**
+     * Adds a fragment that can be used in the construct.
+     */
+    public void add(T item, Overhang leftOverhang, Overhang rightOverhang) {
+        inserts.add(index.add(item, leftOverhang, rightOverhang));
+    }
+
+    /**
+     * Solves the order of the fragments. Can only be called once, as the fragments are used up.
+     *
+     * @return The plan of the construct.
+     */
+    public AssemblyPlan<T> plan() {
+        LinkedList<OverhangIndex.Entry<T>> parts = new LinkedList<OverhangIndex.Entry<T>>();
+        parts.add(start);
+        boolean circular = false;
+
+        Overhang rightEnd = start.getRightOverhang();
+        while (!circular) {
+            if (rightEnd != null && rightEnd.matches(start.getLeftOverhang()) && parts.size() > 1) {
+                circular = true; //The chain closed, so the construct is complete.
+            } else {
+                OverhangIndex.Entry<T> next = index.take(rightEnd);
+                if (next == null || !rightEnd.matches(next.getLeftOverhang())) {
+                    break;
+                }
+                parts.addLast(next);
+                rightEnd = next.getRightOverhang();
+            }
+        }
+        if (!circular) {
+            Overhang leftEnd = start.getLeftOverhang();
+            OverhangIndex.Entry<T> previous = index.take(leftEnd);
+            while (previous != null && leftEnd.matches(previous.getRightOverhang())) {
+                parts.addFirst(previous);
+                leftEnd = previous.getLeftOverhang();
+                previous = index.take(leftEnd);
+            }
+        }
+
+        Set<OverhangIndex.Entry<T>> used = Collections.newSetFromMap(new IdentityHashMap<OverhangIndex.Entry<T>, Boolean>());
+        used.addAll(parts);
+        List<T> unused = new ArrayList<T>();
+        for (OverhangIndex.Entry<T> insert : inserts) {
+            if (!used.contains(insert)) {
+                unused.add(insert.getItem());
+            }
+        }
+        return new AssemblyPlan<T>(new ArrayList<OverhangIndex.Entry<T>>(parts), circular, unused);
+    }
+
+    private OverhangIndex.Entry<T> start;
+    private final OverhangIndex<T> index = new OverhangIndex<T>();
+    private final List<OverhangIndex.Entry<T>> inserts = new ArrayList<OverhangIndex.Entry<T>>();
+}
@@ -0,0 +1,120 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the partial assemblies shared by a set of constructs, so a chain of fragments that starts several constructs
+ * +is only joined once. The partial assemblies form a prefix tree over the ordered fragment chains: each node is the
+ * +assembly of the fragments on the way to it, made by joining one more fragment to the assembly of its parent. Asking
+ * +for a chain builds only the nodes that are still missing, so the work of a whole set of constructs grows with the
+ * +number of different joins rather than with the number of constructs times their length.
+ * Chains can be asked for from several threads at once. A missing node is built while its parent is locked, so no
+ * +join is ever done twice.
+ * Every partial assembly is weighed when it is built. Once the weight of all of them goes over the limit, the whole
+ * +trie is dropped and built up again from the chains asked for next.
+ *
+ * @param <K> The type of the fragments. Two fragments are the same if they are equal.
+ * @param <P> The type of the partial assemblies.
+ */
+public class AssemblyTrie<K, P> {
+
+    /**
+     * Joins a fragment to a partial assembly.
+     */
+    public interface Joiner<K, P> {
+        /**
+         * @param prefix The assembly of the fragments before, or null for the first fragment.
+         * @param fragment The fragment to add.
+         * @return The new partial assembly. The prefix must not be changed, as other chains share it.
+         */
+        P join(P prefix, K fragment);
+
+        /**
+         * @param partial A partial assembly.
+         * @return The memory it takes up, in any unit that the limit of the trie is given in.
+         */
+        long weigh(P partial);
+    }
+
+    /**
+     * @param joiner Joins and weighs the partial assemblies.
+     * @param maxWeight The weight of all the partial assemblies above which they are dropped.
+     */
+    public AssemblyTrie(Joiner<K, P> joiner, long maxWeight) {
+        this.joiner = joiner;
+        this.maxWeight = maxWeight;
+    }
+
+    /**
+     * Gets the partial assembly of a chain of fragments, building whatever part of it has not been built before.
+     *
+     * @param chain The fragments in the order they are joined.
+     * @return The partial assembly, or null for an empty chain.
+     */
+    public P get(List<K> chain) {
+        if (weight() > maxWeight) {
+            clear();
+        }
+        Node<K, P> node = root;
+        for (K fragment : chain) {
+            synchronized (node) {
+                Node<K, P> child = node.children.get(fragment);
+                if (child == null) {
+                    child = new Node<K, P>(joiner.join(node.value, fragment));
+                    node.children.put(fragment, child);
+                    long childWeight = joiner.weigh(child.value);
+                    synchronized (this) {
+                        size++;
+                        weight += childWeight;
+                    }
+                }
+                node = child;
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * @return The number of partial assemblies held.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return The weight of the partial assemblies held.
+     */
+    public synchronized long weight() {
+        return weight;
+    }
+
+    /**
+     * Drops all the partial assemblies.
+     */
+    public void clear() {
+        synchronized (root) {
+            root.children.clear();
+        }
+        synchronized (this) {
+            size = 0;
+            weight = 0;
+        }
+    }
+
+    private static final class Node<K, P> {
+        Node(P value) {
+            this.value = value;
+        }
+
+        final P value;
+        final Map<K, Node<K, P>> children = new HashMap<K, Node<K, P>>(2);
+    }
+
+    private final Joiner<K, P> joiner;
+    private final long maxWeight;
+    private final Node<K, P> root = new Node<K, P>(null);
+    private int size = 0;
+    private long weight = 0;
+}
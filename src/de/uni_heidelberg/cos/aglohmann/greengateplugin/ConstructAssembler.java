@@ -0,0 +1,348 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The core of the GreenGate assembly, shared by the Geneious operation and the command line tools. Each part is
+ * +digested and the fragments it contributes are selected, the order of the fragments is planned from their overhangs,
+ * +starting with the destination vector, and the construct is joined in one go with the features of the parts moved
+ * +onto it.
+ * The parts and their features are only handled through an Adapter, so the same code works on Geneious documents and
+ * +on plain sequence records. The partial constructs are kept in an AssemblyTrie, so constructs starting with the same
+ * +fragments in the same order share them instead of joining those fragments again. The trie is dropped whenever it
+ * +holds more than MAX_SHARED_BASES nucleotides, so a long running assembler does not fill up the memory.
+ *
+ * @param <P> The type of the parts.
+ * @param <A> The type of the features of the parts and the construct.
+ */
+public class ConstructAssembler<P, A> {
+
+    /**
+     * Gives the assembly access to the parts and their features.
+     */
+    public interface Adapter<P, A> {
+        String getName(P part);
+
+        CharSequence getSequence(P part);
+
+        boolean isCircular(P part);
+
+        /**
+         * Moves the features of a part lying on one of its fragments onto the construct.
+         *
+         * @param part The part.
+         * @param fragment The fragment of the part.
+         * @param offset The 0 based position of the fragment on the construct.
+         * @param targetLength The length of the construct.
+         * @param targetCircular Whether the construct is circular.
+         * @param results The moved features are added to this list.
+         */
+        void mapFeatures(P part, Fragment fragment, int offset, int targetLength, boolean targetCircular, List<A> results);
+    }
+
+    /**
+     * @param enzyme The enzyme used for the GreenGate reaction.
+     * @param digestCache The cache of digestion results. Can be shared between assemblers.
+     * @param metrics The metrics the work of the assembler is added to.
+     * @param adapter The access to the parts.
+     */
+    public ConstructAssembler(Enzyme enzyme, DigestCache digestCache, AssemblyMetrics metrics, Adapter<P, A> adapter) {
+        this.engine = new DigestEngine(enzyme);
+        this.digestCache = digestCache;
+        this.metrics = metrics;
+        this.adapter = adapter;
+    }
+
+    public Enzyme getEnzyme() {return engine.getEnzyme();}
+
+    public AssemblyMetrics getMetrics() {return metrics;}
+
+    /**
+     * Drops the partial assemblies kept from the constructs built so far. They are shared between all the constructs
+     * +built by this assembler and hold on to their parts, so a long running assembler should drop them between
+     * +unrelated batches.
+     */
+    public void clearSharedAssemblies() {
+        prefixes.clear();
+    }
+
+    /**
+     * Digests a part and selects the fragments it contributes to the construct (see Fragment.isInsert()).
+     *
+     * @param part The part to digest.
+     * @return The selected fragments.
+     * @throws AssemblyException If the part has no such fragment.
+     */
+    public List<Placed<P>> selectFragments(P part) throws AssemblyException {
+        return selectFragments(part, digest(part));
+    }
+
+    /**
+     * Digests a part through the digest cache.
+     *
+     * @param part The part to digest.
+     * @return The sites and fragments of the part.
+     */
+    public DigestCache.Digest digest(P part) {
+        long start = System.nanoTime();
+        CharSequence sequence = adapter.getSequence(part);
+        DigestCache.Digest digest = digestCache.getDigest(engine, sequence, adapter.isCircular(part), metrics);
+        metrics.addBasesProcessed(sequence.length());
+        metrics.addTime(AssemblyMetrics.Stage.DIGEST, start);
+        return digest;
+    }
+
+    /**
+     * Selects the fragments a digested part contributes to the construct (see Fragment.isInsert()).
+     *
+     * @param part The part.
+     * @param digest The digest of the part, from digest(part).
+     * @return The selected fragments.
+     * @throws AssemblyException If the part has no such fragment.
+     */
+    public List<Placed<P>> selectFragments(P part, DigestCache.Digest digest) throws AssemblyException {
+        long start = System.nanoTime();
+        List<Fragment> fragments = digest.getFragments();
+        String name = adapter.getName(part);
+        List<Placed<P>> selected = new ArrayList<Placed<P>>(1);
+        for (int i = 0; i < fragments.size(); i++) {
+            if (fragments.get(i).isInsert()) {
+                selected.add(new Placed<P>(part, fragments.get(i), fragments.size() == 1 ? name : name + " fragment " + (i + 1)));
+            }
+        }
+        metrics.addTime(AssemblyMetrics.Stage.SELECTION, start);
+        if (selected.isEmpty()) {
+            throw new AssemblyException(name + " does not give a fragment with two overhangs and no " + engine.getEnzyme().dispName() + " site.");
+        }
+        return selected;
+    }
+
+    /**
+     * Plans the order of the selected fragments of a set of parts.
+     *
+     * @param fragments The fragments selected from each part, those of the destination vector first. The first
+     *                  +fragment of the destination vector is the one the construct is built around.
+     * @return The plan. It may be linear if the fragments do not close.
+     */
+    public AssemblyPlan<Placed<P>> plan(List<List<Placed<P>>> fragments) {
+        long start = System.nanoTime();
+        AssemblyPlanner<Placed<P>> planner = new AssemblyPlanner<Placed<P>>();
+        boolean first = true;
+        for (List<Placed<P>> partFragments : fragments) {
+            for (Placed<P> placed : partFragments) {
+                Fragment fragment = placed.getFragment();
+                if (first) {
+                    planner.setStart(placed, fragment.getLeftOverhang(), fragment.getRightOverhang());
+                    first = false;
+                } else {
+                    planner.add(placed, fragment.getLeftOverhang(), fragment.getRightOverhang());
+                }
+            }
+        }
+        AssemblyPlan<Placed<P>> plan = planner.plan();
+        metrics.addTime(AssemblyMetrics.Stage.OVERHANGS, start);
+        return plan;
+    }
+
+    /**
+     * Joins the fragments of a plan and moves the features of the parts onto the construct.
+     * Everything but the last fragment is taken from the shared prefixes, which hold the joined sequence and features
+     * +of the fragments before, so constructs starting with the same parts only join them and map their features once.
+     * +Each construct then only appends the last fragment, which closes the circle, and maps its features, as only
+     * +they can reach over the origin.
+     *
+     * @param plan The order of the fragments.
+     * @return The construct, circular if the plan closes.
+     */
+    public Construct<P, A> ligate(AssemblyPlan<Placed<P>> plan) {
+        List<OverhangIndex.Entry<Placed<P>>> parts = plan.getParts();
+        List<Placed<P>> prefix = new ArrayList<Placed<P>>(parts.size() - 1);
+        for (OverhangIndex.Entry<Placed<P>> part : parts.subList(0, parts.size() - 1)) {
+            prefix.add(part.getItem());
+        }
+        Partial<A> joined = prefixes.get(prefix);
+        metrics.addPrefixJoins(prefix.size());
+
+        //Only the last fragment is added to the joined prefix. If the plan closes, its right overhang is the left
+        //+overhang of the first fragment, at the very beginning of the construct.
+        long start = System.nanoTime();
+        Placed<P> last = parts.get(parts.size() - 1).getItem();
+        Fragment lastFragment = last.getFragment();
+        boolean circular = plan.isCircular();
+        int lastOffset = joined == null ? 0 : joined.openEnd();
+        int length = lastOffset + lastFragment.getLength() - (circular ? lastFragment.getRightOverhang().length() : 0);
+        StringBuilder builder = new StringBuilder(length);
+        if (joined != null) {
+            builder.append(joined.sequence, 0, lastOffset);
+        }
+        builder.append(lastFragment.getSequence(), 0, length - lastOffset);
+        String sequence = builder.toString();
+        metrics.addLigationAttempt(circular ? parts.size() : parts.size() - 1);
+        metrics.addTime(AssemblyMetrics.Stage.LIGATION, start);
+
+        start = System.nanoTime();
+        List<A> features = joined == null ? new ArrayList<A>() : new ArrayList<A>(joined.features);
+        adapter.mapFeatures(last.getPart(), lastFragment, lastOffset, length, circular, features);
+        metrics.addTime(AssemblyMetrics.Stage.CLEANUP, start);
+        List<Placed<P>> placed = new ArrayList<Placed<P>>(prefix);
+        placed.add(last);
+        return new Construct<P, A>(placed, sequence, circular, features);
+    }
+
+    /**
+     * Explains why a plan does not close: which end is left free, and which of the fragments that could close it
+     * +comes closest to ligating to it. Ends are only ever ligated if they match exactly (see Overhang.matches()), the
+     * +OverhangMatrix is only used to rank the near misses.
+     *
+     * @param plan A plan that is not circular.
+     * @return The explanation, as a sentence or two.
+     */
+    public String explainOpenEnd(AssemblyPlan<Placed<P>> plan) {
+        List<OverhangIndex.Entry<Placed<P>>> parts = plan.getParts();
+        OverhangIndex.Entry<Placed<P>> last = parts.get(parts.size() - 1);
+        StringBuilder explanation = new StringBuilder("nothing joins the " + last.getRightOverhang().getSequence() + " overhang of " + adapter.getName(last.getItem().getPart()) + ".");
+        int length = engine.getEnzyme().overhang();
+        if (length >= 1 && length <= OverhangMatrix.MAX_TABLE_LENGTH) {
+            //The end could be closed by the first fragment, or joined by one of those left over.
+            List<Placed<P>> candidates = new ArrayList<Placed<P>>(plan.getUnused());
+            candidates.add(parts.get(0).getItem());
+            List<Overhang> leftEnds = new ArrayList<Overhang>(candidates.size());
+            for (Placed<P> candidate : candidates) {
+                leftEnds.add(candidate.getFragment().getLeftOverhang());
+            }
+            Overhang closest = OverhangMatrix.forLength(length).findClosest(last.getRightOverhang(), leftEnds);
+            if (closest != null) {
+                Placed<P> candidate = candidates.get(leftEnds.indexOf(closest));
+                explanation.append(" The closest is the ").append(closest.getSequence()).append(" overhang of ").append(adapter.getName(candidate.getPart())).append(".");
+            }
+        }
+        return explanation.toString();
+    }
+
+    /**
+     * Joins a fragment to a partial construct: adds its sequence to that of the prefix and moves its features there.
+     * +Only the last fragment of a construct can reach its end, so the features are mapped as if onto an endless linear
+     * +sequence.
+     */
+    private Partial<A> join(Partial<A> prefix, Placed<P> part) {
+        long start = System.nanoTime();
+        Fragment fragment = part.getFragment();
+        int offset = prefix == null ? 0 : prefix.openEnd();
+        StringBuilder sequence = new StringBuilder(offset + fragment.getLength());
+        if (prefix != null) {
+            sequence.append(prefix.sequence, 0, offset);
+        }
+        sequence.append(fragment.getSequence());
+        metrics.addTime(AssemblyMetrics.Stage.LIGATION, start);
+
+        start = System.nanoTime();
+        List<A> features = prefix == null ? new ArrayList<A>() : new ArrayList<A>(prefix.features);
+        adapter.mapFeatures(part.getPart(), fragment, offset, Integer.MAX_VALUE, false, features);
+        metrics.addTime(AssemblyMetrics.Stage.CLEANUP, start);
+        return new Partial<A>(sequence.toString(), fragment.getRightOverhang().length(), features);
+    }
+
+    /**
+     * A selected fragment together with the part it was cut from. Equal if they are the same fragment of the same
+     * +part object.
+     */
+    public static final class Placed<P> {
+        Placed(P part, Fragment fragment, String name) {
+            this.part = part;
+            this.fragment = fragment;
+            this.name = name;
+        }
+
+        public P getPart() {return part;}
+
+        public Fragment getFragment() {return fragment;}
+
+        /**
+         * @return The name of the part, followed by the number of the fragment if the part was cut into several.
+         */
+        public String getName() {return name;}
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Placed)) {
+                return false;
+            }
+            Placed<?> other = (Placed<?>)o;
+            return part == other.part && fragment.getSourceStart() == other.fragment.getSourceStart();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(part) + fragment.getSourceStart();
+        }
+
+        private final P part;
+        private final Fragment fragment;
+        private final String name;
+    }
+
+    /**
+     * An assembled construct.
+     */
+    public static final class Construct<P, A> {
+        Construct(List<Placed<P>> parts, String sequence, boolean circular, List<A> features) {
+            this.parts = parts;
+            this.sequence = sequence;
+            this.circular = circular;
+            this.features = features;
+        }
+
+        /**
+         * @return The fragments in the order they were joined.
+         */
+        public List<Placed<P>> getParts() {return parts;}
+
+        public String getSequence() {return sequence;}
+
+        public boolean isCircular() {return circular;}
+
+        public List<A> getFeatures() {return features;}
+
+        private final List<Placed<P>> parts;
+        private final String sequence;
+        private final boolean circular;
+        private final List<A> features;
+    }
+
+    //The fragments of a construct joined so far, with the features of all of them.
+    private static final class Partial<A> {
+        Partial(String sequence, int rightOverhangLength, List<A> features) {
+            this.sequence = sequence;
+            this.rightOverhangLength = rightOverhangLength;
+            this.features = features;
+        }
+
+        //Where the next fragment starts: on the right overhang of the last one.
+        int openEnd() {
+            return sequence.length() - rightOverhangLength;
+        }
+
+        final String sequence; //Including the right overhang of the last fragment.
+        final int rightOverhangLength;
+        final List<A> features;
+    }
+
+    //The most nucleotides the shared prefixes hold together before they are dropped, about 32 MB of sequence.
+    private static final long MAX_SHARED_BASES = 16L * 1024 * 1024;
+
+    private final DigestEngine engine;
+    private final DigestCache digestCache;
+    private final AssemblyMetrics metrics;
+    private final Adapter<P, A> adapter;
+    private final AssemblyTrie<Placed<P>, Partial<A>> prefixes = new AssemblyTrie<Placed<P>, Partial<A>>(new AssemblyTrie.Joiner<Placed<P>, Partial<A>>() {
+        public Partial<A> join(Partial<A> prefix, Placed<P> fragment) {
+            metrics.addPrefixJoinBuilt();
+            return ConstructAssembler.this.join(prefix, fragment);
+        }
+
+        public long weigh(Partial<A> partial) {
+            return partial.sequence.length();
+        }
+    }, MAX_SHARED_BASES);
+}
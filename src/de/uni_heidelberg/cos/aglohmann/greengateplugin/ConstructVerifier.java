@@ -0,0 +1,432 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks an assembled construct against a reference map or sequencing reads.
+ * The k-mers of the construct are packed two bits per nucleotide into longs while a window is rolled over it, and
+ * +stored in an open addressing table with their position. On a circular construct the window is rolled on over the
+ * +origin, so the k-mers spanning it are indexed too. A sequence is placed on the construct by looking up each of its
+ * +k-mers on both strands and voting for the offset (the diagonal) they put it at, which finds the placement whatever
+ * +the rotation of a circular sequence and whichever strand it is given on. The placed sequence is then compared base
+ * +by base. K-mers found more than once in the construct are not used for voting.
+ */
+public class ConstructVerifier {
+
+    /**
+     * Indexes a construct with the default k-mer length.
+     */
+    public ConstructVerifier(CharSequence construct, boolean circular) {
+        this(construct, circular, DEFAULT_K);
+    }
+
+    /**
+     * Indexes a construct.
+     *
+     * @param construct The sequence of the construct.
+     * @param circular Whether the construct is circular.
+     * @param k The length of the k-mers, at most MAX_K. Longer k-mers are more specific but need longer exact matches.
+     */
+    public ConstructVerifier(CharSequence construct, boolean circular, int k) {
+        if (k < 1 || k > MAX_K) {
+            throw new IllegalArgumentException("The k-mer length has to be between 1 and " + MAX_K + ", not " + k);
+        }
+        this.construct = construct;
+        this.circular = circular;
+        this.k = k;
+        this.mask = (1L << (2 * k)) - 1;
+        int capacity = Integer.highestOneBit(Math.max(16, construct.length() * 2 - 1)) * 2;
+        keys = new long[capacity];
+        positions = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+
+        int length = construct.length();
+        int end = circular && length >= k ? length + k - 1 : length;
+        long window = 0;
+        int valid = 0;
+        for (int i = 0; i < end; i++) {
+            int code = codeOf(construct.charAt(i < length ? i : i - length));
+            if (code < 0) {
+                valid = 0;
+                continue;
+            }
+            window = ((window << 2) | code) & mask;
+            if (++valid >= k) {
+                put(window, i - k + 1);
+            }
+        }
+    }
+
+    public int getK() {return k;}
+
+    /**
+     * Compares the construct to a reference map. The reference is compared at the placement most of its k-mers agree
+     * +on, so after an insertion or deletion the rest of the reference on the shorter side is reported as different.
+     *
+     * @param reference The expected sequence. It can start anywhere on the construct and be on either strand.
+     * @return The comparison. If the reference shares no k-mer with the construct, it is not placed and the whole
+     * +reference is one mismatching region.
+     */
+    public Comparison compare(CharSequence reference) {
+        Placement placement = place(reference);
+        int length = reference.length();
+        List<Region> regions = new ArrayList<Region>();
+        if (placement == null) {
+            regions.add(new Region(0, length));
+            return new Comparison(false, false, -1, regions);
+        }
+        int start = -1;
+        for (int i = 0; i < length; i++) {
+            boolean matches = matches(reference, i, placement);
+            if (!matches && start < 0) {
+                start = i;
+            } else if (matches && start >= 0) {
+                regions.add(new Region(start, i));
+                start = -1;
+            }
+        }
+        if (start >= 0) {
+            regions.add(new Region(start, length));
+        }
+        boolean identical = regions.isEmpty() && length == construct.length();
+        return new Comparison(identical, !placement.forward, placement.offset, regions);
+    }
+
+    /**
+     * Maps a set of reads to the construct one after the other, so the reads are only read once and do not have to be
+     * +held in memory. Reads are placed without gaps, from the first to the last of their k-mers agreeing with the
+     * +placement, so the ends of a read reaching past the construct are left out, while an insertion or deletion shows
+     * +up as mismatches up to the end of the part that still aligns.
+     *
+     * @param reads The reads, eg. the records of a SequenceFileReader.
+     * @return The coverage and the mismatches of the reads along the construct.
+     */
+    public ReadMapping mapReads(Iterable<SequenceRecord> reads) {
+        ReadMapping mapping = new ReadMapping(construct.length());
+        for (SequenceRecord read : reads) {
+            mapRead(read.getSequence(), mapping);
+        }
+        return mapping;
+    }
+
+    /**
+     * Maps a single read.
+     *
+     * @param read The sequence of the read.
+     * @param mapping The mapping the read is added to.
+     * @return True if the read could be placed on the construct.
+     */
+    public boolean mapRead(CharSequence read, ReadMapping mapping) {
+        Placement placement = place(read);
+        if (placement == null) {
+            mapping.unmapped++;
+            return false;
+        }
+        int length = construct.length();
+        //Only the aligned part of the read is counted, so overhanging ends of the read are not taken as mismatches.
+        for (int i = placement.from; i < placement.to; i++) {
+            int position = placement.toConstruct(i, length);
+            if (position < 0) {
+                continue; //Past the end of a linear construct.
+            }
+            mapping.coverage[position]++;
+            if (!matches(read, i, placement)) {
+                mapping.mismatches[position]++;
+            }
+        }
+        mapping.mapped++;
+        return true;
+    }
+
+    /**
+     * The result of comparing the construct to a reference.
+     */
+    public static final class Comparison {
+        Comparison(boolean identical, boolean reverseComplement, int offset, List<Region> mismatches) {
+            this.identical = identical;
+            this.reverseComplement = reverseComplement;
+            this.offset = offset;
+            this.mismatches = mismatches;
+        }
+
+        /**
+         * @return True if the construct is the reference, possibly rotated or reverse complemented.
+         */
+        public boolean isIdentical() {return identical;}
+
+        /**
+         * @return True if the reference is on the bottom strand of the construct.
+         */
+        public boolean isReverseComplement() {return reverseComplement;}
+
+        /**
+         * @return The position on the construct of the first nucleotide of the reference, or -1 if the reference
+         * +could not be placed.
+         */
+        public int getOffset() {return offset;}
+
+        /**
+         * @return The regions of the reference that differ from the construct, in reference positions.
+         */
+        public List<Region> getMismatches() {return mismatches;}
+
+        @Override
+        public String toString() {
+            if (identical) {
+                return "identical" + (reverseComplement ? " (reverse complement)" : "") + ", reference starts at " + (offset + 1);
+            }
+            if (offset < 0) {
+                return "no similarity";
+            }
+            return "differs in " + mismatches.size() + (mismatches.size() == 1 ? " region: " : " regions: ") + mismatches;
+        }
+
+        private final boolean identical;
+        private final boolean reverseComplement;
+        private final int offset;
+        private final List<Region> mismatches;
+    }
+
+    /**
+     * A half open range [start, end) of positions.
+     */
+    public static final class Region {
+        Region(int start, int end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public int getStart() {return start;}
+
+        public int getEnd() {return end;}
+
+        @Override
+        public String toString() {
+            return end - start == 1 ? String.valueOf(end) : (start + 1) + ".." + end;
+        }
+
+        private final int start;
+        private final int end;
+    }
+
+    /**
+     * The reads mapped to a construct.
+     */
+    public static final class ReadMapping {
+        public ReadMapping(int length) {
+            coverage = new int[length];
+            mismatches = new int[length];
+        }
+
+        public int getMapped() {return mapped;}
+
+        public int getUnmapped() {return unmapped;}
+
+        /**
+         * @return The number of reads covering each position of the construct.
+         */
+        public int[] getCoverage() {return coverage;}
+
+        /**
+         * @return The number of reads disagreeing with the construct at each position.
+         */
+        public int[] getMismatches() {return mismatches;}
+
+        /**
+         * @return The regions of the construct no read covers.
+         */
+        public List<Region> getUncovered() {
+            List<Region> regions = new ArrayList<Region>();
+            int start = -1;
+            for (int i = 0; i <= coverage.length; i++) {
+                boolean covered = i == coverage.length || coverage[i] > 0;
+                if (!covered && start < 0) {
+                    start = i;
+                } else if (covered && start >= 0) {
+                    regions.add(new Region(start, i));
+                    start = -1;
+                }
+            }
+            return regions;
+        }
+
+        /**
+         * Finds the regions where the reads disagree with the construct.
+         *
+         * @param minFraction The share of the reads covering a position that have to disagree, eg. 0.5.
+         * @return The regions, in construct positions.
+         */
+        public List<Region> getDiscrepancies(double minFraction) {
+            List<Region> regions = new ArrayList<Region>();
+            int start = -1;
+            for (int i = 0; i <= coverage.length; i++) {
+                boolean differs = i < coverage.length && coverage[i] > 0 && mismatches[i] >= minFraction * coverage[i];
+                if (differs && start < 0) {
+                    start = i;
+                } else if (!differs && start >= 0) {
+                    regions.add(new Region(start, i));
+                    start = -1;
+                }
+            }
+            return regions;
+        }
+
+        private final int[] coverage;
+        private final int[] mismatches;
+        private int mapped = 0;
+        private int unmapped = 0;
+    }
+
+    //Finds the strand and offset most k-mers of a sequence agree on, or null if none of them is in the construct.
+    private Placement place(CharSequence sequence) {
+        int length = construct.length();
+        Map<Long, int[]> votes = new HashMap<Long, int[]>();
+        long forward = 0;
+        long reverse = 0; //The reverse complement of the window.
+        int valid = 0;
+        int shift = 2 * (k - 1);
+        for (int i = 0; i < sequence.length(); i++) {
+            int code = codeOf(sequence.charAt(i));
+            if (code < 0) {
+                valid = 0;
+                continue;
+            }
+            forward = ((forward << 2) | code) & mask;
+            reverse = (reverse >>> 2) | ((long)(3 - code) << shift);
+            if (++valid < k) {
+                continue;
+            }
+            int start = i - k + 1;
+            int position = get(forward);
+            if (position >= 0) {
+                vote(votes, true, floorMod(position - start, length), start);
+            }
+            position = get(reverse);
+            if (position >= 0) {
+                //The first nucleotide of the sequence pairs with the construct at the end of the k-mer plus its start.
+                vote(votes, false, floorMod(position + k - 1 + start, length), start);
+            }
+        }
+        Placement best = null;
+        int bestVotes = 0;
+        for (Map.Entry<Long, int[]> entry : votes.entrySet()) {
+            if (entry.getValue()[0] > bestVotes) {
+                bestVotes = entry.getValue()[0];
+                best = new Placement(entry.getKey() >= 0, (int)(entry.getKey() >= 0 ? entry.getKey() : ~entry.getKey()), entry.getValue()[1], entry.getValue()[2] + k);
+            }
+        }
+        return best;
+    }
+
+    //Counts a k-mer for an offset, and keeps the first and the last k-mer start giving it.
+    private static void vote(Map<Long, int[]> votes, boolean forward, int offset, int start) {
+        Long key = forward ? (long)offset : ~(long)offset;
+        int[] count = votes.get(key);
+        if (count == null) {
+            votes.put(key, new int[] {1, start, start});
+        } else {
+            count[0]++;
+            count[2] = start;
+        }
+    }
+
+    //Whether position i of a placed sequence agrees with the construct.
+    private boolean matches(CharSequence sequence, int i, Placement placement) {
+        int position = placement.toConstruct(i, construct.length());
+        if (position < 0) {
+            return false;
+        }
+        int code = codeOf(sequence.charAt(i));
+        int expected = codeOf(construct.charAt(position));
+        return code >= 0 && expected >= 0 && (placement.forward ? code == expected : code == 3 - expected);
+    }
+
+    /**
+     * Where a sequence lies on the construct.
+     */
+    private final class Placement {
+        Placement(boolean forward, int offset, int from, int to) {
+            this.forward = forward;
+            this.offset = offset;
+            this.from = from;
+            this.to = to;
+        }
+
+        //The construct position of position i of the sequence, or -1 if it is outside of a linear construct.
+        int toConstruct(int i, int length) {
+            int position = forward ? offset + i : offset - i;
+            if (circular) {
+                return floorMod(position, length);
+            }
+            return position >= 0 && position < length ? position : -1;
+        }
+
+        final boolean forward;
+        final int offset; //For the reverse strand the construct position of the first nucleotide, read backwards.
+        final int from; //The part of the sequence between the first and the last k-mer agreeing with the placement.
+        final int to;
+    }
+
+    private void put(long key, int position) {
+        int slot = findSlot(key);
+        if (keys[slot] == EMPTY) {
+            keys[slot] = key;
+            positions[slot] = position;
+        } else {
+            positions[slot] = REPEATED;
+        }
+    }
+
+    //The position of a k-mer, or -1 if it is not in the construct or found more than once.
+    private int get(long key) {
+        int slot = findSlot(key);
+        return keys[slot] == EMPTY ? -1 : positions[slot];
+    }
+
+    private int findSlot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int)(hash ^ (hash >>> 32)) & (keys.length - 1);
+        while (keys[slot] != EMPTY && keys[slot] != key) {
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return slot;
+    }
+
+    private static int floorMod(int value, int modulus) {
+        int result = value % modulus;
+        return result < 0 ? result + modulus : result;
+    }
+
+    private static int codeOf(char base) {
+        switch (base) {
+            case 'A': case 'a': return 0;
+            case 'C': case 'c': return 1;
+            case 'G': case 'g': return 2;
+            case 'T': case 't': case 'U': case 'u': return 3;
+            default: return -1;
+        }
+    }
+
+    /**
+     * The k-mer length used by default, long enough to be unique in any plasmid.
+     */
+    public static final int DEFAULT_K = 21;
+    /**
+     * The longest k-mers that fit into a long.
+     */
+    public static final int MAX_K = 31;
+
+    private static final long EMPTY = -1;
+    private static final int REPEATED = -1;
+
+    private final CharSequence construct;
+    private final boolean circular;
+    private final int k;
+    private final long mask;
+    private final long[] keys;
+    private final int[] positions;
+}
@@ -0,0 +1,410 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the results of digestions, so the same sequences (entry modules, destination vectors) are not digested again
+ * +in every run. Results are found by a hash of the sequence together with the enzyme, so it does not matter which
+ * +document the sequence comes from.
+ * The cache holds a limited number of nucleotides, and drops the least recently used results when it is full. If a
+ * +directory is given, results are also written there and read back when they are not in memory. The files are
+ * +written in a plain format of their own, so reading them never creates objects of any other class.
+ * A sequence asked for by several threads at once is only digested once: the later callers wait for the first one.
+ */
+public class DigestCache {
+
+    /**
+     * @param maxBases The number of nucleotides of fragments kept in memory.
+     * @param directory The directory to store the results in, or null to keep them in memory only.
+     */
+    public DigestCache(long maxBases, File directory) {
+        this.maxBases = maxBases;
+        this.directory = directory;
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create digest cache directory " + directory);
+        }
+    }
+
+    /**
+     * Digests a sequence, or returns the cached result of an earlier digestion of the same sequence.
+     *
+     * @param engine The digest engine of the enzyme to use.
+     * @param sequence The nucleotide sequence to digest.
+     * @param circular Whether the sequence is circular.
+     * @return The fragments, as returned by DigestEngine.digest(). The list cannot be modified.
+     */
+    public List<Fragment> digest(DigestEngine engine, CharSequence sequence, boolean circular) {
+        return digest(engine, sequence, circular, null);
+    }
+
+    /**
+     * Digests a sequence, or returns the cached result of an earlier digestion of the same sequence.
+     *
+     * @param engine The digest engine of the enzyme to use.
+     * @param sequence The nucleotide sequence to digest.
+     * @param circular Whether the sequence is circular.
+     * @param metrics The metrics of the run asking, which the hit or miss is counted for. Can be null.
+     * @return The fragments, as returned by DigestEngine.digest(). The list cannot be modified.
+     */
+    public List<Fragment> digest(DigestEngine engine, CharSequence sequence, boolean circular, AssemblyMetrics metrics) {
+        return getDigest(engine, sequence, circular, metrics).getFragments();
+    }
+
+    /**
+     * Digests a sequence, or returns the cached result of an earlier digestion of the same sequence, together with
+     * +all the sites found in it. The sequence is only scanned for sites once, for both.
+     *
+     * @param engine The digest engine of the enzyme to use.
+     * @param sequence The nucleotide sequence to digest.
+     * @param circular Whether the sequence is circular.
+     * @param metrics The metrics of the run asking, which the hit or miss is counted for. Can be null.
+     * @return The sites and fragments.
+     */
+    public Digest getDigest(final DigestEngine engine, final CharSequence sequence, final boolean circular, final AssemblyMetrics metrics) {
+        final String key = getKey(engine.getEnzyme(), sequence, circular);
+        Digest digest = get(key);
+        if (digest != null) {
+            countHit(metrics);
+            return digest;
+        }
+        FutureTask<Digest> task = new FutureTask<Digest>(new Callable<Digest>() {
+            public Digest call() {
+                Digest result = get(key); //Another caller may have finished since we looked.
+                if (result == null) {
+                    result = load(key, engine.getEnzyme());
+                }
+                if (result != null) {
+                    countHit(metrics);
+                    return result;
+                }
+                countMiss(metrics);
+                List<Site> sites = engine.findSites(sequence, circular);
+                result = new Digest(sites, engine.digest(sequence, circular, sites));
+                put(key, result);
+                save(key, result);
+                return result;
+            }
+        });
+        FutureTask<Digest> running = inProgress.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inProgress.remove(key, task);
+            }
+        } else {
+            countHit(metrics); //Digested by another caller, we only wait for it.
+        }
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the digest of the same sequence.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * @return The number of digests found in the cache since it was created, by all callers.
+     */
+    public long getHits() {return hits.get();}
+
+    /**
+     * @return The number of digests done since the cache was created, by all callers.
+     */
+    public long getMisses() {return misses.get();}
+
+    /**
+     * Drops all results held in memory. Results stored in the directory are kept.
+     */
+    public synchronized void clear() {
+        results.clear();
+        cachedBases = 0;
+    }
+
+    private void countHit(AssemblyMetrics metrics) {
+        hits.incrementAndGet();
+        if (metrics != null) {
+            metrics.addCacheHit();
+        }
+    }
+
+    private void countMiss(AssemblyMetrics metrics) {
+        misses.incrementAndGet();
+        if (metrics != null) {
+            metrics.addCacheMiss();
+        }
+    }
+
+    private synchronized Digest get(String key) {
+        return results.get(key);
+    }
+
+    private synchronized void put(String key, Digest digest) {
+        if (results.put(key, digest) == null) {
+            cachedBases += countBases(digest);
+        }
+        //Evict the least recently used results, but always keep the latest one.
+        Iterator<Map.Entry<String, Digest>> iterator = results.entrySet().iterator();
+        while (cachedBases > maxBases && results.size() > 1) {
+            Map.Entry<String, Digest> eldest = iterator.next();
+            cachedBases -= countBases(eldest.getValue());
+            iterator.remove();
+        }
+    }
+
+    private long countBases(Digest digest) {
+        long bases = 0;
+        for (Fragment fragment : digest.getFragments()) {
+            bases += fragment.getLength();
+        }
+        return bases;
+    }
+
+    //Reads a stored digest back, or returns null if there is none or the file is broken, so it is digested again.
+    private Digest load(String key, Enzyme enzyme) {
+        if (directory == null) {
+            return null;
+        }
+        File file = new File(directory, key + FILE_EXTENSION);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                Digest digest = readDigest(in, enzyme, file.length());
+                put(key, digest);
+                return digest;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace(); //A broken cache file is simply digested again.
+            return null;
+        }
+    }
+
+    private void save(String key, Digest digest) {
+        if (directory == null) {
+            return;
+        }
+        //Written under a temporary name first, so other runs never read a half written file.
+        File file = new File(directory, key + FILE_EXTENSION);
+        File temporaryFile = new File(directory, key + "." + Thread.currentThread().getId() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+            try {
+                writeDigest(out, digest);
+            } finally {
+                out.close();
+            }
+            if (!temporaryFile.renameTo(file)) {
+                temporaryFile.delete();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            temporaryFile.delete();
+        }
+    }
+
+    /**
+     * Writes a digest in the format of the cache files: a header, the sites of the sequence, the number of fragments,
+     * +and for each fragment its sequence, where it was cut from, its two ends (each a flag, followed by the sequence,
+     * +position and strand if present) and its sites. Sites are written as their position and strand, and belong to
+     * +the enzyme of the key.
+     */
+    static void writeDigest(DataOutputStream out, Digest digest) throws IOException {
+        out.writeInt(FILE_MAGIC);
+        writeSites(out, digest.getSites());
+        out.writeInt(digest.getFragments().size());
+        for (Fragment fragment : digest.getFragments()) {
+            writeString(out, fragment.getSequence());
+            out.writeInt(fragment.getSourceStart());
+            out.writeInt(fragment.getSourceLength());
+            writeOverhang(out, fragment.getLeftOverhang());
+            writeOverhang(out, fragment.getRightOverhang());
+            writeSites(out, fragment.getSites());
+        }
+    }
+
+    /**
+     * Reads a digest written by writeDigest().
+     *
+     * @param enzyme The enzyme the sites are created for.
+     * @param maxLength The length of the file. No count or length read can be larger.
+     * @throws IOException If the data is not in the format, or inconsistent.
+     */
+    static Digest readDigest(DataInputStream in, Enzyme enzyme, long maxLength) throws IOException {
+        if (in.readInt() != FILE_MAGIC) {
+            throw new IOException("Not a digest cache file.");
+        }
+        List<Site> allSites = readSites(in, enzyme, maxLength);
+        int numFragments = readCount(in, maxLength);
+        List<Fragment> fragments = new ArrayList<Fragment>(numFragments);
+        for (int i = 0; i < numFragments; i++) {
+            String sequence = readString(in, maxLength);
+            int sourceStart = in.readInt();
+            int sourceLength = in.readInt();
+            if (sourceStart < 0 || sourceLength < 0 || sourceStart > sourceLength) {
+                throw new IOException("Fragment " + (i + 1) + " lies outside of the digested sequence.");
+            }
+            Overhang leftOverhang = readOverhang(in, maxLength);
+            Overhang rightOverhang = readOverhang(in, maxLength);
+            fragments.add(new Fragment(sequence, sourceStart, sourceLength, leftOverhang, rightOverhang, readSites(in, enzyme, maxLength)));
+        }
+        return new Digest(allSites, fragments);
+    }
+
+    private static void writeSites(DataOutputStream out, List<Site> sites) throws IOException {
+        out.writeInt(sites.size());
+        for (Site site : sites) {
+            out.writeInt(site.getPosition());
+            out.writeBoolean(site.isForward());
+        }
+    }
+
+    private static List<Site> readSites(DataInputStream in, Enzyme enzyme, long maxLength) throws IOException {
+        int numSites = readCount(in, maxLength);
+        List<Site> sites = new ArrayList<Site>(numSites);
+        for (int i = 0; i < numSites; i++) {
+            sites.add(new Site(enzyme, in.readInt(), in.readBoolean()));
+        }
+        return sites;
+    }
+
+    private static void writeOverhang(DataOutputStream out, Overhang overhang) throws IOException {
+        out.writeBoolean(overhang != null);
+        if (overhang != null) {
+            writeString(out, overhang.getSequence());
+            out.writeInt(overhang.getPosition());
+            out.writeBoolean(overhang.isTopStrand());
+        }
+    }
+
+    private static Overhang readOverhang(DataInputStream in, long maxLength) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        String sequence = readString(in, maxLength);
+        return new Overhang(sequence, in.readInt(), in.readBoolean());
+    }
+
+    //Nucleotides are plain ASCII, so they are stored one byte each, without the 64 kB limit of writeUTF().
+    private static void writeString(DataOutputStream out, String text) throws IOException {
+        out.writeInt(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            out.writeByte(text.charAt(i));
+        }
+    }
+
+    private static String readString(DataInputStream in, long maxLength) throws IOException {
+        byte[] bytes = new byte[readCount(in, maxLength)];
+        in.readFully(bytes);
+        return new String(bytes, "US-ASCII");
+    }
+
+    private static int readCount(DataInputStream in, long maxLength) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > maxLength) {
+            throw new IOException("Count " + count + " does not fit into the file.");
+        }
+        return count;
+    }
+
+    /**
+     * Hashes the sequence together with everything else that changes the result of the digestion. The case of the
+     * +sequence does not matter.
+     */
+    static String getKey(Enzyme enzyme, CharSequence sequence, boolean circular) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available.", e);
+        }
+        byte[] buffer = new byte[8192];
+        String header = KEY_VERSION + ":" + enzyme.dispName() + ":" + enzyme.recognitionPattern() + ":" + circular + ":";
+        for (int i = 0; i < header.length(); i++) {
+            digest.update((byte)header.charAt(i));
+        }
+        for (int start = 0; start < sequence.length(); start += buffer.length) {
+            int end = Math.min(start + buffer.length, sequence.length());
+            for (int i = start; i < end; i++) {
+                buffer[i - start] = (byte)Character.toUpperCase(sequence.charAt(i));
+            }
+            digest.update(buffer, 0, end - start);
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest()) {
+            key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    /**
+     * The result of a digestion: all the sites found in the sequence and the fragments they cut it into. Neither list
+     * +can be modified.
+     */
+    public static final class Digest {
+        Digest(List<Site> sites, List<Fragment> fragments) {
+            this.sites = Collections.unmodifiableList(new ArrayList<Site>(sites));
+            this.fragments = Collections.unmodifiableList(new ArrayList<Fragment>(fragments));
+        }
+
+        /**
+         * @return The sites, as returned by DigestEngine.findSites().
+         */
+        public List<Site> getSites() {return sites;}
+
+        /**
+         * @return The fragments, as returned by DigestEngine.digest().
+         */
+        public List<Fragment> getFragments() {return fragments;}
+
+        private final List<Site> sites;
+        private final List<Fragment> fragments;
+    }
+
+    private static final String FILE_EXTENSION = ".digest";
+    private static final int FILE_MAGIC = 0x47474443; //"GGDC"
+    //Changed whenever the digestion itself or the file format changes, so results stored by an older version are not used.
+    private static final int KEY_VERSION = 4;
+
+    private final long maxBases;
+    private final File directory;
+    private final LinkedHashMap<String, Digest> results = new LinkedHashMap<String, Digest>(16, 0.75f, true); //In order of access, for LRU eviction.
+    private long cachedBases = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final ConcurrentMap<String, FutureTask<Digest>> inProgress = new ConcurrentHashMap<String, FutureTask<Digest>>();
+}
@@ -0,0 +1,183 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * Performs a theoretical digestion of a nucleotide sequence with a Type IIS enzyme. Works on plain sequences, so it
+ * +does not need a running Geneious, and uses the cut geometry stored in the Enzyme to find the fragments and their
+ * +sticky ends directly.
+ */
+public class DigestEngine {
+
+    public DigestEngine(Enzyme enzyme) {
+        this.enzyme = enzyme;
+    }
+
+    public Enzyme getEnzyme() {return enzyme;}
+
+    /**
+     * Digests a sequence with the enzyme.
+     *
+     * @param sequence The nucleotide sequence to digest.
+     * @param circular Whether the sequence is circular.
+     * @return The fragments in the order they appear on the sequence. If the enzyme does not cut, the result is a
+     * +single fragment with the whole sequence and no overhangs.
+     */
+    public List<Fragment> digest(CharSequence sequence, boolean circular) {
+        return digest(sequence, circular, findSites(sequence, circular));
+    }
+
+    /**
+     * Digests a sequence whose sites have already been found, so it is not scanned again.
+     *
+     * @param sequence The sequence to digest.
+     * @param circular Whether the sequence is circular.
+     * @param sites The sites of the sequence, as returned by findSites().
+     * @return The fragments, in the order of the sequence.
+     */
+    public List<Fragment> digest(CharSequence sequence, boolean circular, List<Site> sites) {
+        int length = sequence.length();
+        List<Cut> cuts = getCuts(sequence, sites, circular);
+        List<Fragment> fragments = new ArrayList<Fragment>(cuts.size() + 1);
+
+        if (cuts.isEmpty()) {
+            fragments.add(new Fragment(sequence.toString(), 0, length, null, null, sites));
+        } else if (circular) {
+            //Each fragment reaches from one cut to the next one. The last one wraps around the origin to the first cut.
+            for (int i = 0; i < cuts.size(); i++) {
+                Cut cut = cuts.get(i);
+                Cut nextCut = cuts.get((i + 1) % cuts.size());
+                int end = nextCut.end();
+                if (i == cuts.size() - 1) {
+                    end += length;
+                }
+                fragments.add(createFragment(sequence, cut.start, end, cut.getRightEnd(), nextCut.getLeftEnd(), sites));
+            }
+        } else {
+            int start = 0;
+            Overhang leftEnd = null;
+            for (Cut cut : cuts) {
+                fragments.add(createFragment(sequence, start, cut.end(), leftEnd, cut.getLeftEnd(), sites));
+                start = cut.start;
+                leftEnd = cut.getRightEnd();
+            }
+            fragments.add(createFragment(sequence, start, length, leftEnd, null, sites));
+        }
+        return fragments;
+    }
+
+    /**
+     * Finds all the forward and reverse recognition sites of the enzyme.
+     *
+     * @param sequence The sequence to search.
+     * @param circular Whether the sequence is circular, so sites spanning the origin are found too.
+     * @return The sites found, in the order of their position.
+     */
+    public List<Site> findSites(CharSequence sequence, boolean circular) {
+        return enzyme.scanner().scan(sequence, circular);
+    }
+
+    /**
+     * Finds the cuts made by the sites and orders them by their position.
+     * On linear sequences sites that would cut outside of the sequence are dropped. A cut overlapping the previous one
+     * +is dropped as well, as the enzyme cannot cut at both places.
+     */
+    List<Cut> getCuts(CharSequence sequence, List<Site> sites, boolean circular) {
+        int length = sequence.length();
+        List<Cut> cuts = new ArrayList<Cut>(sites.size());
+        for (Site site : sites) {
+            int start = Math.min(site.getTopCut(), site.getBottomCut());
+            int overhangLength = Math.abs(site.getTopCut() - site.getBottomCut());
+            if (circular) {
+                start = ((start % length) + length) % length;
+            } else if (start < 0 || start + overhangLength > length) {
+                continue;
+            }
+            cuts.add(new Cut(sequence, start, overhangLength, site.getTopCut() < site.getBottomCut()));
+        }
+        Collections.sort(cuts, new Comparator<Cut>() {
+            public int compare(Cut c1, Cut c2) {
+                return c1.start - c2.start;
+            }
+        });
+        List<Cut> nonOverlapping = new ArrayList<Cut>(cuts.size());
+        for (Cut cut : cuts) {
+            if (nonOverlapping.isEmpty() || cut.start >= nonOverlapping.get(nonOverlapping.size() - 1).end()) {
+                nonOverlapping.add(cut);
+            }
+        }
+        if (circular && nonOverlapping.size() > 1) {
+            Cut last = nonOverlapping.get(nonOverlapping.size() - 1);
+            if (last.end() > nonOverlapping.get(0).start + length) {
+                nonOverlapping.remove(nonOverlapping.size() - 1);
+            }
+        }
+        return nonOverlapping;
+    }
+
+    private Fragment createFragment(CharSequence sequence, int start, int end, Overhang leftEnd, Overhang rightEnd, List<Site> sites) {
+        int length = sequence.length();
+        //Keep only the sites whose whole recognition sequence ended up on the fragment.
+        List<Site> fragmentSites = new LinkedList<Site>();
+        for (Site site : sites) {
+            int offset = site.getPosition() - start;
+            if (offset < 0) {
+                offset += length;
+            }
+            if (offset + site.getLength() <= end - start) {
+                fragmentSites.add(site);
+            }
+        }
+        return new Fragment(subSequence(sequence, start, end), start, length, leftEnd, rightEnd, fragmentSites);
+    }
+
+    /**
+     * Gets part of a sequence. The end can be beyond the end of the sequence, in which case the sequence is treated
+     * +as circular and continues from its beginning.
+     */
+    static String subSequence(CharSequence sequence, int start, int end) {
+        int length = sequence.length();
+        if (end <= length) {
+            return sequence.subSequence(start, end).toString();
+        }
+        StringBuilder builder = new StringBuilder(end - start);
+        builder.append(sequence, start, length);
+        for (int i = length; i < end; i += length) {
+            builder.append(sequence, 0, Math.min(end - i, length));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The staggered cut made at a single site. Both fragments next to the cut keep the overhang nucleotides, one of
+     * +them on the top strand and the other on the bottom strand.
+     */
+    static class Cut {
+        Cut(CharSequence sequence, int start, int length, boolean fivePrime) {
+            this.start = start;
+            this.length = length;
+            this.fivePrime = fivePrime;
+            this.sequence = subSequence(sequence, start, start + length);
+        }
+
+        int end() {return start + length;}
+
+        //The end left on the fragment to the left of the cut. For a 5' overhang the top strand is cut first, so the
+        //+bottom strand is left single stranded on this side.
+        Overhang getLeftEnd() {return new Overhang(sequence, start, !fivePrime);}
+
+        //The end left on the fragment to the right of the cut.
+        Overhang getRightEnd() {return new Overhang(sequence, start, fivePrime);}
+
+        final int start; //Wrapped into the sequence for circular sequences.
+        final int length;
+        final boolean fivePrime;
+        final String sequence;
+    }
+
+    private final Enzyme enzyme;
+}
@@ -0,0 +1,271 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import com.biomatters.geneious.publicapi.documents.AnnotatedPluginDocument;
+import com.biomatters.geneious.publicapi.documents.PluginDocument;
+import com.biomatters.geneious.publicapi.documents.sequence.NucleotideSequenceDocument;
+import com.biomatters.geneious.publicapi.plugin.DocumentOperationException;
+import com.biomatters.geneious.publicapi.plugin.Options;
+
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * The list of documents used in the reaction, shown as a scrolling list with a button removing the selected entries.
+ * There is no limit on the number of documents. The list only draws the rows that are visible, and a row only shows
+ * +the name of its document, so the documents themselves are not loaded to fill the list.
+ * Each document is digested in the background as soon as it is added, and its row shows the overhangs of the
+ * +fragment it contributes once they are known. The digests go into the digest cache shared with the assembly, so by
+ * +the time the dialog is closed most of the work is already done. Removing a document cancels its digest, and closing
+ * +the dialog or starting the operation cancels all of them.
+ * The documents cannot be stored between sessions, so the value of the option is not used.
+ */
+public class DocumentListOption extends Options.Option<String, JPanel> {
+
+    /**
+     * @param name The name of the option.
+     * @param label The label shown next to the list.
+     * @param executor The executor the background digests run on.
+     * @param digestCache The cache the digests are stored in.
+     * @param documents The documents the list starts with.
+     */
+    public DocumentListOption(String name, String label, ExecutorService executor, DigestCache digestCache, AnnotatedPluginDocument... documents) {
+        super(name, label, "");
+        this.executor = executor;
+        this.digestCache = digestCache;
+        for (AnnotatedPluginDocument document : documents) {
+            model.addElement(new Row(document));
+        }
+    }
+
+    /**
+     * Sets the enzyme the documents are digested with, and digests all of them again.
+     */
+    public void setEnzyme(Enzyme enzyme) {
+        this.enzyme = enzyme;
+        for (int i = 0; i < model.size(); i++) {
+            model.get(i).digest();
+        }
+        repaintList();
+    }
+
+    /**
+     * Cancels the background digests still running. Documents whose digest was cancelled are digested again if the
+     * +list is shown again.
+     */
+    public void cancelDigests() {
+        for (int i = 0; i < model.size(); i++) {
+            model.get(i).cancel();
+        }
+    }
+
+    /**
+     * Adds documents to the end of the list.
+     */
+    public void addDocuments(Collection<AnnotatedPluginDocument> documents) {
+        for (AnnotatedPluginDocument document : documents) {
+            Row row = new Row(document);
+            model.addElement(row);
+            row.digest();
+        }
+    }
+
+    /**
+     * @return The documents in the list, in order.
+     */
+    public List<AnnotatedPluginDocument> getDocuments() {
+        List<AnnotatedPluginDocument> documents = new ArrayList<AnnotatedPluginDocument>(model.size());
+        for (int i = 0; i < model.size(); i++) {
+            documents.add(model.get(i).document);
+        }
+        return documents;
+    }
+
+    public int getNumDocuments() {
+        return model.size();
+    }
+
+    @Override
+    public String getValueFromString(String value) {
+        return value;
+    }
+
+    @Override
+    protected void setValueOnComponent(JPanel component, String value) {
+        //The value is not shown.
+    }
+
+    @Override
+    protected JPanel createComponent() {
+        list = new JList<Row>(model);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+                Object shown = value instanceof Row ? ((Row)value).getText() : value;
+                return super.getListCellRendererComponent(list, shown, index, isSelected, cellHasFocus);
+            }
+        });
+        //With a prototype every row has the same size, so the list does not have to measure all of them.
+        list.setPrototypeCellValue(new Row(PROTOTYPE_NAME, PROTOTYPE_OVERHANGS));
+        list.setVisibleRowCount(VISIBLE_ROWS);
+
+        JButton remove = new JButton("Remove");
+        remove.addActionListener(new ActionListener() {
+            public void actionPerformed(ActionEvent actionEvent) {
+                int[] selected = list.getSelectedIndices();
+                for (int i = selected.length - 1; i >= 0; i--) { //From the end, so the other indices stay valid.
+                    model.remove(selected[i]).cancel();
+                }
+            }
+        });
+        JPanel buttons = new JPanel(new BorderLayout());
+        buttons.add(remove, BorderLayout.NORTH);
+
+        final JPanel panel = new JPanel(new BorderLayout());
+        panel.add(new JScrollPane(list), BorderLayout.CENTER);
+        panel.add(buttons, BorderLayout.EAST);
+        //The digests only fill the list, so they are stopped when the dialog is closed.
+        panel.addHierarchyListener(new HierarchyListener() {
+            public void hierarchyChanged(HierarchyEvent event) {
+                if ((event.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) == 0) {
+                    return;
+                }
+                if (panel.isShowing()) {
+                    resumeDigests();
+                } else {
+                    cancelDigests();
+                }
+            }
+        });
+        return panel;
+    }
+
+    //Digests the documents whose digest was cancelled before it finished.
+    private void resumeDigests() {
+        for (int i = 0; i < model.size(); i++) {
+            model.get(i).resume();
+        }
+    }
+
+    //Repaints the visible rows, from any thread.
+    private void repaintList() {
+        SwingUtilities.invokeLater(new Runnable() {
+            public void run() {
+                if (list != null) {
+                    list.repaint();
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the overhangs of the fragments a document contributes, digesting it (or reading the digest from the cache).
+     */
+    private String findOverhangs(AnnotatedPluginDocument document, Enzyme enzyme) throws DocumentOperationException {
+        PluginDocument pluginDocument = document.getDocument();
+        if (!(pluginDocument instanceof NucleotideSequenceDocument)) {
+            return "not a nucleotide sequence";
+        }
+        NucleotideSequenceDocument sequence = (NucleotideSequenceDocument)pluginDocument;
+        SequenceRecord record = new SequenceRecord(document.getName(), sequence.getCharSequence(), sequence.isCircular(), Collections.<SequenceFeature>emptyList());
+        try {
+            StringBuilder overhangs = new StringBuilder();
+            for (Fragment fragment : new FragmentAssembler(enzyme, digestCache).selectFragments(record)) {
+                overhangs.append(overhangs.length() == 0 ? "" : ", ").append(fragment.getLeftOverhang().getSequence()).append(" - ").append(fragment.getRightOverhang().getSequence());
+            }
+            return overhangs.toString();
+        } catch (AssemblyException e) {
+            return "no fragment with two overhangs";
+        }
+    }
+
+    /**
+     * A document in the list, together with its background digest.
+     */
+    private final class Row {
+        Row(AnnotatedPluginDocument document) {
+            this.document = document;
+            this.name = document.getName();
+        }
+
+        //A row without a document, only used to size the list.
+        Row(String name, String overhangs) {
+            this.document = null;
+            this.name = name;
+            this.overhangs = overhangs;
+        }
+
+        //Starts digesting the document with the current enzyme, cancelling any earlier digest.
+        synchronized void digest() {
+            cancel();
+            overhangs = null;
+            if (enzyme == null) {
+                return;
+            }
+            final Enzyme digestEnzyme = enzyme;
+            digest = executor.submit(new Runnable() {
+                public void run() {
+                    String found;
+                    try {
+                        found = findOverhangs(document, digestEnzyme);
+                    } catch (DocumentOperationException e) {
+                        found = "could not be read";
+                    }
+                    if (!Thread.currentThread().isInterrupted() && digestEnzyme == enzyme) {
+                        overhangs = found;
+                        repaintList();
+                    }
+                }
+            });
+        }
+
+        synchronized void cancel() {
+            if (digest != null) {
+                digest.cancel(true);
+                digest = null;
+            }
+        }
+
+        synchronized void resume() {
+            if (digest == null && overhangs == null) {
+                digest();
+            }
+        }
+
+        String getText() {
+            String found = overhangs;
+            return name + "   [" + (found == null ? "digesting..." : found) + "]";
+        }
+
+        final AnnotatedPluginDocument document;
+        final String name;
+        private Future<?> digest;
+        private volatile String overhangs;
+    }
+
+    private static final String PROTOTYPE_NAME = "pGGA000 entry module with a long name";
+    private static final String PROTOTYPE_OVERHANGS = "ACCT - AACA";
+    private static final int VISIBLE_ROWS = 10;
+
+    private final DefaultListModel<Row> model = new DefaultListModel<Row>();
+    private final ExecutorService executor;
+    private final DigestCache digestCache;
+    private volatile Enzyme enzyme;
+    private JList<Row> list;
+}
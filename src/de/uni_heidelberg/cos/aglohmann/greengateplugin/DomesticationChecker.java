@@ -0,0 +1,347 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds the recognition sites inside parts that still have to be removed (domesticated) before the parts can be used,
+ * +and proposes single nucleotide changes that remove them without changing the protein where a site lies in a CDS.
+ *
+ * Every site of a part is internal except the pair flanking the insert: a reverse site followed by a forward site
+ * +with no other site between them, the two ends of the backbone of an entry vector. On circular parts the longest
+ * +such gap is taken as the backbone. On linear parts, such as PCR products, the flanking pair is a forward site near
+ * +the start and a reverse site near the end. A part without a flanking pair has only internal sites.
+ *
+ * A change is proposed if it gives a synonymous codon in a CDS feature (standard genetic code, reading frame from the
+ * +start of the feature), destroys the site and creates no new one. Sites outside of any CDS are only reported.
+ */
+public class DomesticationChecker {
+
+    public DomesticationChecker(Enzyme enzyme) {
+        this.enzyme = enzyme;
+        this.engine = new DigestEngine(enzyme);
+    }
+
+    public Enzyme getEnzyme() {return enzyme;}
+
+    /**
+     * Checks a single part.
+     *
+     * @param part The part, with its features if CDS changes are to be proposed.
+     * @return The internal sites of the part.
+     */
+    public Report check(SequenceRecord part) {
+        CharSequence sequence = part.getSequence();
+        List<Site> sites = engine.findSites(sequence, part.isCircular());
+        List<Site> internal = new ArrayList<Site>(sites);
+        int backbone = findBackbone(sites, sequence.length(), part.isCircular());
+        if (backbone >= 0) {
+            internal.remove(sites.get(backbone));
+            internal.remove(sites.get((backbone + 1) % sites.size()));
+        }
+        List<InternalSite> results = new ArrayList<InternalSite>(internal.size());
+        for (Site site : internal) {
+            SequenceFeature cds = findCds(part, site);
+            List<Fix> fixes = cds == null ? Collections.<Fix>emptyList() : findFixes(sequence, part.isCircular(), site, cds);
+            results.add(new InternalSite(site, cds, fixes));
+        }
+        return new Report(part.getName(), part.getLength(), results);
+    }
+
+    /**
+     * Checks many parts at the same time.
+     *
+     * @param parts The parts to check.
+     * @param numThreads The number of parts checked at the same time.
+     * @return The reports, in the order of the parts.
+     */
+    public List<Report> checkAll(List<SequenceRecord> parts, int numThreads) {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        List<Future<Report>> futures = new ArrayList<Future<Report>>(parts.size());
+        try {
+            for (final SequenceRecord part : parts) {
+                futures.add(executor.submit(new Callable<Report>() {
+                    public Report call() {
+                        return check(part);
+                    }
+                }));
+            }
+            List<Report> reports = new ArrayList<Report>(parts.size());
+            for (Future<Report> future : futures) {
+                reports.add(future.get());
+            }
+            return reports;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while checking the parts.", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * The internal sites of a part.
+     */
+    public static final class Report {
+        Report(String name, int length, List<InternalSite> sites) {
+            this.name = name;
+            this.length = length;
+            this.sites = sites;
+        }
+
+        public String getName() {return name;}
+
+        public int getLength() {return length;}
+
+        public List<InternalSite> getSites() {return sites;}
+
+        /**
+         * @return True if the part has no internal sites.
+         */
+        public boolean isDomesticated() {return sites.isEmpty();}
+
+        private final String name;
+        private final int length;
+        private final List<InternalSite> sites;
+    }
+
+    /**
+     * A site that has to be removed, with the changes that would remove it.
+     */
+    public static final class InternalSite {
+        InternalSite(Site site, SequenceFeature cds, List<Fix> fixes) {
+            this.site = site;
+            this.cds = cds;
+            this.fixes = fixes;
+        }
+
+        public Site getSite() {return site;}
+
+        /**
+         * @return The CDS the site lies in, or null if it is not in a CDS.
+         */
+        public SequenceFeature getCds() {return cds;}
+
+        /**
+         * @return The synonymous single nucleotide changes removing the site. Empty if the site is not in a CDS or no
+         * +such change exists.
+         */
+        public List<Fix> getFixes() {return fixes;}
+
+        private final Site site;
+        private final SequenceFeature cds;
+        private final List<Fix> fixes;
+    }
+
+    /**
+     * A single nucleotide change.
+     */
+    public static final class Fix {
+        Fix(int position, char from, char to, String codon, String newCodon, char aminoAcid) {
+            this.position = position;
+            this.from = from;
+            this.to = to;
+            this.codon = codon;
+            this.newCodon = newCodon;
+            this.aminoAcid = aminoAcid;
+        }
+
+        /**
+         * @return The 0 based position of the changed nucleotide on the top strand.
+         */
+        public int getPosition() {return position;}
+
+        public char getFrom() {return from;}
+
+        public char getTo() {return to;}
+
+        /**
+         * @return The codon before the change, read in the direction of the CDS.
+         */
+        public String getCodon() {return codon;}
+
+        public String getNewCodon() {return newCodon;}
+
+        public char getAminoAcid() {return aminoAcid;}
+
+        @Override
+        public String toString() {
+            return from + "" + (position + 1) + to + " (" + codon + ">" + newCodon + ", " + aminoAcid + ")";
+        }
+
+        private final int position;
+        private final char from;
+        private final char to;
+        private final String codon;
+        private final String newCodon;
+        private final char aminoAcid;
+    }
+
+    /**
+     * Finds the flanking pair of sites, a reverse site followed by a forward site.
+     *
+     * @return The index of the reverse site of the pair, or -1 if there is none.
+     */
+    private int findBackbone(List<Site> sites, int length, boolean circular) {
+        if (sites.size() < 2) {
+            return -1;
+        }
+        if (!circular) {
+            Site first = sites.get(0);
+            Site last = sites.get(sites.size() - 1);
+            boolean flanked = first.isForward() && !last.isForward() && first.getPosition() < MAX_FLANK && length - last.getPosition() - last.getLength() < MAX_FLANK;
+            return flanked ? sites.size() - 1 : -1;
+        }
+        int backbone = -1;
+        int longest = -1;
+        for (int i = 0; i < sites.size(); i++) {
+            Site site = sites.get(i);
+            Site next = sites.get((i + 1) % sites.size());
+            if (!site.isForward() && next.isForward()) {
+                int gap = next.getPosition() - site.getPosition();
+                if (gap <= 0) {
+                    gap += length;
+                }
+                if (gap > longest) {
+                    longest = gap;
+                    backbone = i;
+                }
+            }
+        }
+        return backbone;
+    }
+
+    //The CDS feature containing the whole site, or null.
+    private static SequenceFeature findCds(SequenceRecord part, Site site) {
+        for (SequenceFeature feature : part.getFeatures()) {
+            if (!feature.getType().equalsIgnoreCase("CDS")) {
+                continue;
+            }
+            //On circular parts the site can also lie in the part of the feature past the origin.
+            for (int position = site.getPosition(); position <= site.getPosition() + (part.isCircular() ? part.getLength() : 0); position += part.getLength()) {
+                if (position >= feature.getStart() && position + site.getLength() <= feature.getEnd()) {
+                    return feature;
+                }
+            }
+        }
+        return null;
+    }
+
+    private List<Fix> findFixes(CharSequence sequence, boolean circular, Site site, SequenceFeature cds) {
+        int length = sequence.length();
+        List<Fix> fixes = new ArrayList<Fix>();
+        int siteStart = site.getPosition() < cds.getStart() ? site.getPosition() + length : site.getPosition();
+        for (int position = siteStart; position < siteStart + site.getLength(); position++) {
+            //The codon holding the nucleotide, as top strand positions, and the place of the nucleotide in it.
+            int codonStart;
+            int inCodon;
+            if (cds.isForward()) {
+                codonStart = cds.getStart() + (position - cds.getStart()) / 3 * 3;
+                inCodon = position - codonStart;
+            } else {
+                codonStart = cds.getEnd() - ((cds.getEnd() - 1 - position) / 3 + 1) * 3;
+                inCodon = 2 - (position - codonStart);
+            }
+            if (codonStart < cds.getStart() || codonStart + 3 > cds.getEnd()) {
+                continue; //An incomplete codon at the end of the feature.
+            }
+            char[] codon = new char[3];
+            for (int i = 0; i < 3; i++) {
+                codon[i] = base(sequence, codonStart + i);
+            }
+            if (!cds.isForward()) {
+                codon = reverseComplement(codon);
+            }
+            char aminoAcid = translate(codon);
+            if (aminoAcid == 0) {
+                continue;
+            }
+            char original = codon[inCodon];
+            for (char replacement : BASES) {
+                if (replacement == original) {
+                    continue;
+                }
+                char[] newCodon = codon.clone();
+                newCodon[inCodon] = replacement;
+                if (translate(newCodon) != aminoAcid) {
+                    continue;
+                }
+                char topBase = cds.isForward() ? replacement : complement(replacement);
+                if (removesSite(sequence, circular, position, topBase)) {
+                    fixes.add(new Fix(position % length, base(sequence, position), topBase, new String(codon), new String(newCodon), aminoAcid));
+                }
+            }
+        }
+        return fixes;
+    }
+
+    //Checks that changing a nucleotide leaves no site overlapping it.
+    private boolean removesSite(CharSequence sequence, boolean circular, int position, char newBase) {
+        int length = sequence.length();
+        int reach = enzyme.recognitionSite().length() - 1;
+        int from = position - reach;
+        int to = position + reach + 1;
+        if (!circular) {
+            from = Math.max(0, from);
+            to = Math.min(length, to);
+        }
+        StringBuilder window = new StringBuilder(to - from);
+        for (int i = from; i < to; i++) {
+            window.append(i == position ? newBase : base(sequence, i));
+        }
+        return enzyme.scanner().scan(window).isEmpty();
+    }
+
+    private static char base(CharSequence sequence, int position) {
+        int length = sequence.length();
+        return Character.toUpperCase(sequence.charAt(((position % length) + length) % length));
+    }
+
+    private static char[] reverseComplement(char[] codon) {
+        return new char[] {complement(codon[2]), complement(codon[1]), complement(codon[0])};
+    }
+
+    private static char complement(char base) {
+        switch (base) {
+            case 'A': return 'T';
+            case 'C': return 'G';
+            case 'G': return 'C';
+            case 'T': return 'A';
+            default: return 'N';
+        }
+    }
+
+    /**
+     * @return The amino acid of a codon in the standard genetic code, * for stop codons, or 0 if the codon contains
+     * +other letters than A, C, G and T.
+     */
+    static char translate(char[] codon) {
+        int index = 0;
+        for (char base : codon) {
+            int code = GENETIC_CODE_BASES.indexOf(base);
+            if (code < 0) {
+                return 0;
+            }
+            index = index * 4 + code;
+        }
+        return GENETIC_CODE.charAt(index);
+    }
+
+    //Sites this close to the ends of a linear part are taken as the flanking sites added to it, eg. by PCR primers.
+    private static final int MAX_FLANK = 50;
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+    //The standard genetic code, the codons ordered by their bases in the order TCAG.
+    private static final String GENETIC_CODE_BASES = "TCAG";
+    private static final String GENETIC_CODE = "FFLLSSSSYY**CC*WLLLLPPPPHHQQRRRRIIIMTTTTNNKKSSRRVVVVAAAADDEEGGGG";
+
+    private final Enzyme enzyme;
+    private final DigestEngine engine;
+}
@@ -1,18 +1,42 @@
 package de.uni_heidelberg.cos.aglohmann.greengateplugin;
 
 /**
+ * A Type IIS restriction enzyme. Enzymes are defined by their recognition pattern in the usual notation, for example
+ * +GGTCTC(1/5), from which the cut geometry, the reverse recognition site and the site scanner are all worked out once
+ * +when the enzyme is created. The available enzymes are loaded by the EnzymeRegistry.
+ *
  * Created by matyas on 12/02/15.
  */
-public enum Enzyme {
-    ECO31I ("Eco31I", "GGTCTC", "GAGACC", "GGTCTC(1/5)",7, 4);
+public final class Enzyme {
 
-    Enzyme(String name, String recognitionSite, String revRecSite, String recPattern, int cutSite, int overhang) {
+    /**
+     * @param name Name of the enzyme for display.
+     * @param recognitionPattern The recognition site followed by the cut positions on the two strands, counted from
+     *                           +the end of the site. eg. GGTCTC(1/5)
+     * @throws IllegalArgumentException If the pattern cannot be parsed, or the site contains ambiguous nucleotides.
+     */
+    public Enzyme(String name, String recognitionPattern) {
+        int open = recognitionPattern.indexOf('(');
+        int slash = recognitionPattern.indexOf('/');
+        int close = recognitionPattern.indexOf(')');
+        if (open <= 0 || slash < open || close < slash) {
+            throw new IllegalArgumentException("Cannot read recognition pattern " + recognitionPattern + " of " + name);
+        }
+        int topCut;
+        int bottomCut;
+        try {
+            topCut = Integer.parseInt(recognitionPattern.substring(open + 1, slash).trim());
+            bottomCut = Integer.parseInt(recognitionPattern.substring(slash + 1, close).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cannot read the cut positions in " + recognitionPattern + " of " + name);
+        }
         this.name = name;
-        this.recognitionSite = recognitionSite.toUpperCase();
-        this.revRecSite = revRecSite.toUpperCase();
-        this.recognitionPattern = recPattern;
-        this.cutSite = cutSite;
-        this.overhang = overhang;
+        this.recognitionPattern = recognitionPattern;
+        this.recognitionSite = recognitionPattern.substring(0, open).trim().toUpperCase();
+        this.revRecSite = reverseComplement(recognitionSite);
+        this.cutSite = recognitionSite.length() + topCut;
+        this.overhang = bottomCut - topCut;
+        this.scanner = new SiteScanner(this);
     }
 
     public String dispName() {return name;}
@@ -27,11 +51,50 @@ public enum Enzyme {
 
     public int overhang() {return overhang;}
 
-    private String name; //Name of the enzyme for display
+    /**
+     * @return The scanner finding the recognition sites of this enzyme. Compiled once for each enzyme.
+     */
+    public SiteScanner scanner() {return scanner;}
+
+    static String reverseComplement(String sequence) {
+        StringBuilder builder = new StringBuilder(sequence.length());
+        for (int i = sequence.length() - 1; i >= 0; i--) {
+            switch (sequence.charAt(i)) {
+                case 'A': builder.append('T'); break;
+                case 'C': builder.append('G'); break;
+                case 'G': builder.append('C'); break;
+                case 'T': builder.append('A'); break;
+                default: builder.append('N');
+            }
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Enzyme)) {
+            return false;
+        }
+        Enzyme other = (Enzyme)o;
+        return name.equals(other.name) && recognitionPattern.equals(other.recognitionPattern);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * name.hashCode() + recognitionPattern.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + recognitionPattern;
+    }
+
+    private final String name; //Name of the enzyme for display
     //All sequence information will be stored in uppercase.
-    private String recognitionSite; //The recognition site for the enzyme (the exact nucleotide sequence)
-    private String revRecSite; //The reverse of the recognition site for the enzyme
-    private int cutSite; //The nucleotide number AFTER which the enzyme cuts, starting at the first nucleotide. '0' if it cuts at the beginning of the recognition sequence. So cutSite gives the last nucleotide still retained in the sequence.
-    private int overhang; //The size of the overhang left by the enzyme. '0' means a blunt cut. Negative numbers mean 3' overhangs.
-    private String recognitionPattern;
+    private final String recognitionSite; //The recognition site for the enzyme (the exact nucleotide sequence)
+    private final String revRecSite; //The reverse of the recognition site for the enzyme
+    private final int cutSite; //The nucleotide number AFTER which the enzyme cuts, starting at the first nucleotide. '0' if it cuts at the beginning of the recognition sequence. So cutSite gives the last nucleotide still retained in the sequence.
+    private final int overhang; //The size of the overhang left by the enzyme. '0' means a blunt cut. Negative numbers mean 3' overhangs.
+    private final String recognitionPattern;
+    private final SiteScanner scanner;
 }
@@ -0,0 +1,141 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Type IIS enzymes the plugin can use. The enzymes are read from the enzymes.txt file bundled with the plugin,
+ * +and from a user supplied file of the same format if the greengate.enzymes system property points to one. Enzymes
+ * +in the user file replace bundled ones of the same name.
+ * Each line of the file holds the name of an enzyme and its recognition pattern, eg. "BsaI GGTCTC(1/5)". Empty lines
+ * +and lines starting with # are ignored.
+ */
+public class EnzymeRegistry {
+
+    /**
+     * @return The registry of the plugin, loaded the first time it is asked for. If the user file cannot be read, only
+     *         +the bundled enzymes are loaded and the problem is kept for getLoadError(), so the plugin still loads.
+     * @throws IllegalStateException If the bundled file cannot be read.
+     */
+    public static synchronized EnzymeRegistry getInstance() {
+        if (instance == null) {
+            EnzymeRegistry registry = new EnzymeRegistry();
+            InputStream bundled = EnzymeRegistry.class.getResourceAsStream(BUNDLED_FILE);
+            if (bundled == null) {
+                throw new IllegalStateException(BUNDLED_FILE + " is missing from the plugin.");
+            }
+            try {
+                registry.load(bundled, BUNDLED_FILE);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not read " + BUNDLED_FILE, e);
+            }
+            String userFile = System.getProperty("greengate.enzymes");
+            if (userFile != null) {
+                //The user file is read on its own first, so a mistake halfway through leaves none of its enzymes.
+                EnzymeRegistry user = new EnzymeRegistry();
+                try {
+                    user.load(new FileInputStream(new File(userFile)), userFile);
+                    registry.enzymes.putAll(user.enzymes);
+                } catch (IOException e) {
+                    registry.loadError = "Could not load the enzymes of greengate.enzymes: " + e.getMessage();
+                }
+            }
+            instance = registry;
+        }
+        return instance;
+    }
+
+    /**
+     * Gets the registry for the command line tools, which stop if the user file cannot be loaded instead of quietly
+     * +using the bundled enzymes.
+     *
+     * @return The registry of the plugin.
+     * @throws IllegalStateException If the bundled file or the user file cannot be read, naming the file and line.
+     */
+    public static EnzymeRegistry getCheckedInstance() {
+        EnzymeRegistry registry = getInstance();
+        if (registry.getLoadError() != null) {
+            throw new IllegalStateException(registry.getLoadError());
+        }
+        return registry;
+    }
+
+    /**
+     * Reads enzyme definitions and adds them to the registry. The stream is closed afterwards.
+     *
+     * @param in The definitions.
+     * @param source The name of the file, for error messages.
+     * @throws IOException If the definitions cannot be read, or one of them is wrong.
+     */
+    public void load(InputStream in, String source) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length != 2) {
+                    throw new IOException(source + " line " + lineNumber + ": expected an enzyme name and a recognition pattern.");
+                }
+                try {
+                    Enzyme enzyme = new Enzyme(fields[0], fields[1]);
+                    enzymes.put(enzyme.dispName().toUpperCase(), enzyme);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(source + " line " + lineNumber + ": " + e.getMessage());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return All the enzymes, in the order they were defined.
+     */
+    public List<Enzyme> getEnzymes() {
+        return Collections.unmodifiableList(new ArrayList<Enzyme>(enzymes.values()));
+    }
+
+    /**
+     * @param name The name of the enzyme. Case does not matter.
+     * @return The enzyme, or null if there is no enzyme with this name.
+     */
+    public Enzyme getEnzyme(String name) {
+        return enzymes.get(name.toUpperCase());
+    }
+
+    /**
+     * @return The enzyme selected when nothing else is chosen. The first one defined.
+     */
+    public Enzyme getDefault() {
+        return enzymes.values().iterator().next();
+    }
+
+    /**
+     * @return Why the user file named by greengate.enzymes could not be loaded, naming the file and line, or null if
+     *         +it was loaded or there is none.
+     */
+    public String getLoadError() {
+        return loadError;
+    }
+
+    private static final String BUNDLED_FILE = "/enzymes.txt";
+    private static EnzymeRegistry instance;
+
+    private final Map<String, Enzyme> enzymes = new LinkedHashMap<String, Enzyme>();
+    private String loadError = null;
+}
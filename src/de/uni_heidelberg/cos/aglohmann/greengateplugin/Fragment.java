@@ -0,0 +1,91 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.List;
+
+/**
+ * A fragment resulting from the digestion of a sequence. The sequence of the fragment contains the single stranded
+ * +nucleotides of both of its ends, so the overhang of each end is the first or last few nucleotides of the sequence.
+ * Fragments of circular sequences can span the origin, in which case getSourceEnd() is larger than the length of the
+ * +digested sequence.
+ */
+public class Fragment {
+
+    public Fragment(String sequence, int sourceStart, int sourceLength, Overhang leftOverhang, Overhang rightOverhang, List<Site> sites) {
+        this.sequence = sequence;
+        this.sourceStart = sourceStart;
+        this.sourceLength = sourceLength;
+        this.leftOverhang = leftOverhang;
+        this.rightOverhang = rightOverhang;
+        this.sites = sites;
+    }
+
+    public String getSequence() {return sequence;}
+
+    public int getLength() {return sequence.length();}
+
+    /**
+     * @return The 0 based index in the digested sequence where the fragment begins.
+     */
+    public int getSourceStart() {return sourceStart;}
+
+    /**
+     * @return The 0 based index in the digested sequence after the last nucleotide of the fragment. Not wrapped around
+     * +the origin.
+     */
+    public int getSourceEnd() {return sourceStart + sequence.length();}
+
+    public int getSourceLength() {return sourceLength;}
+
+    public boolean spansOrigin() {return getSourceEnd() > sourceLength;}
+
+    /**
+     * @return The left end of the fragment, or null if the fragment starts at the end of a linear sequence.
+     */
+    public Overhang getLeftOverhang() {return leftOverhang;}
+
+    /**
+     * @return The right end of the fragment, or null if the fragment ends at the end of a linear sequence.
+     */
+    public Overhang getRightOverhang() {return rightOverhang;}
+
+    /**
+     * @return The recognition sites that are still contained in full in the fragment, in the coordinates of the
+     * +digested sequence.
+     */
+    public List<Site> getSites() {return sites;}
+
+    public boolean containsSite() {return !sites.isEmpty();}
+
+    /**
+     * @return True if this is a fragment a part contributes to a construct: it has an overhang at both ends and no
+     * +recognition site left on it.
+     */
+    public boolean isInsert() {
+        return !containsSite() && isSticky(leftOverhang) && isSticky(rightOverhang);
+    }
+
+    /**
+     * Converts a position of the digested sequence to a position on the fragment.
+     *
+     * @param sourcePosition A 0 based index in the digested sequence.
+     * @return The 0 based index on the fragment, or -1 if the position is not part of the fragment.
+     */
+    public int toFragmentPosition(int sourcePosition) {
+        int position = sourcePosition - sourceStart;
+        if (position < 0) {
+            position += sourceLength;
+        }
+        return position < sequence.length() ? position : -1;
+    }
+
+    private static boolean isSticky(Overhang overhang) {
+        return overhang != null && !overhang.isBlunt();
+    }
+
+    private final String sequence;
+    private final int sourceStart;
+    private final int sourceLength;
+    private final Overhang leftOverhang;
+    private final Overhang rightOverhang;
+    private final List<Site> sites;
+}
@@ -0,0 +1,148 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * The GreenGate assembly working on plain sequence records instead of Geneious documents, so it can run without
+ * +Geneious. The assembly itself is done by the ConstructAssembler, the same as for the documents of the
+ * +SequenceAssembler. This class only moves the features of the records onto the construct, and adds a feature
+ * +marking each part.
+ */
+public class FragmentAssembler {
+
+    /**
+     * @param enzyme The enzyme used for the GreenGate reaction.
+     * @param digestCache The cache of digestion results. Can be shared between assemblers.
+     */
+    public FragmentAssembler(Enzyme enzyme, DigestCache digestCache) {
+        this.assembler = new ConstructAssembler<SequenceRecord, SequenceFeature>(enzyme, digestCache, new AssemblyMetrics(), new RecordAdapter());
+    }
+
+    /**
+     * @return The metrics of all the assemblies done by this assembler so far.
+     */
+    public AssemblyMetrics getMetrics() {
+        return assembler.getMetrics();
+    }
+
+    /**
+     * Drops the partial assemblies kept from the constructs built so far. See ConstructAssembler.clearSharedAssemblies().
+     */
+    public void clearSharedAssemblies() {
+        assembler.clearSharedAssemblies();
+    }
+
+    /**
+     * Digests a part and selects the fragments it contributes to the construct: those that have two overhangs and no
+     * +recognition site left on them.
+     *
+     * @param part The part to digest.
+     * @return The selected fragments.
+     * @throws AssemblyException If the part has no such fragment.
+     */
+    public List<Fragment> selectFragments(SequenceRecord part) throws AssemblyException {
+        List<Fragment> fragments = new ArrayList<Fragment>(1);
+        for (ConstructAssembler.Placed<SequenceRecord> placed : assembler.selectFragments(part)) {
+            fragments.add(placed.getFragment());
+        }
+        return fragments;
+    }
+
+    /**
+     * Assembles a construct.
+     *
+     * @param name The name of the construct.
+     * @param destination The destination vector.
+     * @param parts The entry modules.
+     * @return The circular construct, with the features of the parts and one feature marking each part.
+     * @throws AssemblyException If a part cannot be digested, or the fragments do not close into a circle.
+     */
+    public SequenceRecord assemble(String name, SequenceRecord destination, List<SequenceRecord> parts) throws AssemblyException {
+        List<List<ConstructAssembler.Placed<SequenceRecord>>> fragments = new ArrayList<List<ConstructAssembler.Placed<SequenceRecord>>>(parts.size() + 1);
+        fragments.add(assembler.selectFragments(destination));
+        for (SequenceRecord part : parts) {
+            fragments.add(assembler.selectFragments(part));
+        }
+        AssemblyPlan<ConstructAssembler.Placed<SequenceRecord>> plan = assembler.plan(fragments);
+        if (!plan.isCircular()) {
+            getMetrics().addFailedAttempt();
+            StringBuilder message = new StringBuilder("Could not circularise " + name + ": " + assembler.explainOpenEnd(plan));
+            for (ConstructAssembler.Placed<SequenceRecord> unused : plan.getUnused()) {
+                message.append(" ").append(unused.getPart().getName()).append(" does not fit.");
+            }
+            throw new AssemblyException(message.toString());
+        }
+        ConstructAssembler.Construct<SequenceRecord, SequenceFeature> construct = assembler.ligate(plan);
+        return new SequenceRecord(name, construct.getSequence(), true, construct.getFeatures());
+    }
+
+    //Moves the features of a record that lie on a fragment, truncated to it, and marks the part with a misc_feature. The
+    //+same as the AnnotationMapper does for Geneious documents. Package-private for the AssemblyBenchmark.
+    static final class RecordAdapter implements ConstructAssembler.Adapter<SequenceRecord, SequenceFeature> {
+        public String getName(SequenceRecord part) {return part.getName();}
+
+        public CharSequence getSequence(SequenceRecord part) {return part.getSequence();}
+
+        public boolean isCircular(SequenceRecord part) {return part.isCircular();}
+
+        public void mapFeatures(SequenceRecord part, Fragment fragment, int offset, int targetLength, boolean targetCircular, List<SequenceFeature> results) {
+            SequenceFeature mark = new SequenceFeature("misc_feature", part.getName(), offset, offset + fragment.getLength() - fragment.getRightOverhang().length(), true);
+            addPlaced(mark, mark.getStart(), mark.getEnd(), targetLength, targetCircular, results);
+            IntervalTree<SequenceFeature> tree = getTree(part);
+            int start = fragment.getSourceStart();
+            int end = fragment.getSourceEnd();
+            int sourceLength = fragment.getSourceLength();
+            addMapped(tree, start, end, offset - start, targetLength, targetCircular, results);
+            if (fragment.spansOrigin()) {
+                //The fragment reaches over the origin, so it also contains the features at the start of the record.
+                addMapped(tree, start - sourceLength, end - sourceLength, offset - start + sourceLength, targetLength, targetCircular, results);
+            } else if (part.isCircular()) {
+                //Features spanning the origin run past the end of the record, and may reach into the fragment from there.
+                addMapped(tree, start + sourceLength, end + sourceLength, offset - start - sourceLength, targetLength, targetCircular, results);
+            }
+        }
+
+        //Maps the features overlapping [partStart, partEnd) on the record, truncating them to it.
+        private static void addMapped(IntervalTree<SequenceFeature> tree, int partStart, int partEnd, int shift, int targetLength, boolean targetCircular, List<SequenceFeature> results) {
+            List<SequenceFeature> found = new ArrayList<SequenceFeature>();
+            tree.findOverlapping(partStart, partEnd, found);
+            for (SequenceFeature feature : found) {
+                SequenceFeature truncated = new SequenceFeature(feature.getType(), feature.getName(), Math.max(feature.getStart(), partStart), Math.min(feature.getEnd(), partEnd), feature.isForward());
+                addPlaced(truncated, truncated.getStart() + shift, truncated.getEnd() + shift, targetLength, targetCircular, results);
+            }
+        }
+
+        //Puts a feature at [from, to) on the construct, wrapped around the origin of a circular one. Features that do
+        //+not fit onto a linear construct are dropped.
+        private static void addPlaced(SequenceFeature feature, int from, int to, int targetLength, boolean targetCircular, List<SequenceFeature> results) {
+            if (targetCircular) {
+                int start = ((from % targetLength) + targetLength) % targetLength;
+                results.add(feature.moveBy(start - feature.getStart()));
+            } else if (from >= 0 && to <= targetLength) {
+                results.add(feature.moveBy(from - feature.getStart()));
+            }
+        }
+
+        //The tree of each record is built once, and dropped with the record.
+        private IntervalTree<SequenceFeature> getTree(SequenceRecord record) {
+            synchronized (trees) {
+                IntervalTree<SequenceFeature> tree = trees.get(record);
+                if (tree == null) {
+                    tree = new IntervalTree<SequenceFeature>();
+                    for (SequenceFeature feature : record.getFeatures()) {
+                        tree.add(feature.getStart(), feature.getEnd(), feature);
+                    }
+                    trees.put(record, tree);
+                }
+                return tree;
+            }
+        }
+
+        private final Map<SequenceRecord, IntervalTree<SequenceFeature>> trees = new WeakHashMap<SequenceRecord, IntervalTree<SequenceFeature>>();
+    }
+
+    private final ConstructAssembler<SequenceRecord, SequenceFeature> assembler;
+}
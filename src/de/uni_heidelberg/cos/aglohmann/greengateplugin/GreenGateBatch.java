@@ -0,0 +1,423 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs GreenGate assemblies from the command line, without Geneious or a display, for scripted batch jobs.
+ *
+ * The manifest lists one construct per line: its name followed by the sequence files of its entry modules, separated
+ * +by whitespace. Relative paths are read from the directory of the manifest, and lines starting with # are ignored.
+ * Each construct is written to the output directory as GenBank (or FASTA), and summary.tsv lists the outcome of every
+ * +construct. The exit code is 0 if every construct was assembled, 1 if some failed and 2 for wrong arguments.
+ *
+ * With "catalog" as the first argument the parts catalog is updated instead: the given folders are indexed into the
+ * +index file, and with --left the parts starting with an overhang are listed. With "domesticate" the parts in the
+ * +given files and folders are checked for internal sites, listing each site and the changes that remove it, and the
+ * +exit code is 1 if any part has internal sites. With "verify" an assembled construct is compared to a reference
+ * +map and sequencing reads, and the exit code is 1 if they disagree.
+ */
+public class GreenGateBatch {
+
+    public static void main(String[] args) {
+        System.exit(new GreenGateBatch().run(args));
+    }
+
+    /**
+     * Runs the batch described by the command line arguments.
+     *
+     * @param args The command line arguments.
+     * @return The exit code.
+     */
+    public int run(String[] args) {
+        if (args.length > 0 && args[0].equals("catalog")) {
+            return runCatalog(Arrays.copyOfRange(args, 1, args.length));
+        }
+        if (args.length > 0 && args[0].equals("domesticate")) {
+            return runDomestication(Arrays.copyOfRange(args, 1, args.length));
+        }
+        if (args.length > 0 && args[0].equals("verify")) {
+            return runVerification(Arrays.copyOfRange(args, 1, args.length));
+        }
+        File manifest = null;
+        File destinationFile = null;
+        File outputDirectory = null;
+        File cacheDirectory = null;
+        String enzymeName = null;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        boolean fasta = false;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--manifest")) {
+                    manifest = new File(args[++i]);
+                } else if (arg.equals("--destination")) {
+                    destinationFile = new File(args[++i]);
+                } else if (arg.equals("--out")) {
+                    outputDirectory = new File(args[++i]);
+                } else if (arg.equals("--enzyme")) {
+                    enzymeName = args[++i];
+                } else if (arg.equals("--threads")) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--cache-dir")) {
+                    cacheDirectory = new File(args[++i]);
+                } else if (arg.equals("--fasta")) {
+                    fasta = true;
+                } else {
+                    return usage("Unknown argument " + arg);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return usage("Missing value for " + args[args.length - 1]);
+        } catch (NumberFormatException e) {
+            return usage("--threads needs a number.");
+        }
+        if (manifest == null || destinationFile == null || outputDirectory == null) {
+            return usage("--manifest, --destination and --out are required.");
+        }
+        Enzyme enzyme = enzymeName == null ? EnzymeRegistry.getCheckedInstance().getDefault() : EnzymeRegistry.getCheckedInstance().getEnzyme(enzymeName);
+        if (enzyme == null) {
+            return usage("Unknown enzyme " + enzymeName);
+        }
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            return usage("Cannot create output directory " + outputDirectory);
+        }
+
+        try {
+            List<String[]> constructs = readManifest(manifest);
+            SequenceRecord destination = readRecords(destinationFile).get(0);
+            //The pre-flight check and the assembly share the cache, so each part is only digested once.
+            DigestCache digestCache = new DigestCache(DIGEST_CACHE_BASES, cacheDirectory);
+            FragmentAssembler assembler = new FragmentAssembler(enzyme, digestCache);
+            return assembleAll(assembler, new PreflightCheck(enzyme, digestCache, assembler.getMetrics()), destination, constructs, manifest.getAbsoluteFile().getParentFile(), outputDirectory, numThreads, fasta);
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 2;
+        }
+    }
+
+    /**
+     * Updates a parts catalog and lists the parts with a left overhang.
+     *
+     * @param args The command line arguments after "catalog".
+     * @return The exit code.
+     */
+    private int runCatalog(String[] args) {
+        File indexFile = null;
+        String enzymeName = null;
+        String leftOverhang = null;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        List<File> locations = new ArrayList<File>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--index")) {
+                    indexFile = new File(args[++i]);
+                } else if (arg.equals("--enzyme")) {
+                    enzymeName = args[++i];
+                } else if (arg.equals("--threads")) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else if (arg.equals("--left")) {
+                    leftOverhang = args[++i];
+                } else if (arg.startsWith("--")) {
+                    return usage("Unknown argument " + arg);
+                } else {
+                    locations.add(new File(arg));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return usage("Missing value for " + args[args.length - 1]);
+        } catch (NumberFormatException e) {
+            return usage("--threads needs a number.");
+        }
+        if (indexFile == null) {
+            return usage("catalog needs --index.");
+        }
+        Enzyme enzyme = enzymeName == null ? EnzymeRegistry.getCheckedInstance().getDefault() : EnzymeRegistry.getCheckedInstance().getEnzyme(enzymeName);
+        if (enzyme == null) {
+            return usage("Unknown enzyme " + enzymeName);
+        }
+
+        PartsCatalog catalog = new PartsCatalog(indexFile, enzyme);
+        if (!locations.isEmpty()) {
+            try {
+                int read = catalog.update(locations, numThreads);
+                System.out.println(catalog.size() + " parts catalogued, " + read + " files read.");
+            } catch (IOException e) {
+                System.err.println("Error: " + e.getMessage());
+                return 2;
+            }
+        }
+        if (leftOverhang != null) {
+            for (PartsCatalog.Part part : catalog.findByLeftOverhang(leftOverhang)) {
+                System.out.println(part + "\t" + part.getFile());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Checks parts for internal sites and prints them, one line per site, with the changes proposed for removing them.
+     *
+     * @param args The command line arguments after "domesticate".
+     * @return The exit code.
+     */
+    private int runDomestication(String[] args) {
+        String enzymeName = null;
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        List<File> locations = new ArrayList<File>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--enzyme")) {
+                    enzymeName = args[++i];
+                } else if (arg.equals("--threads")) {
+                    numThreads = Integer.parseInt(args[++i]);
+                } else if (arg.startsWith("--")) {
+                    return usage("Unknown argument " + arg);
+                } else {
+                    locations.add(new File(arg));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return usage("Missing value for " + args[args.length - 1]);
+        } catch (NumberFormatException e) {
+            return usage("--threads needs a number.");
+        }
+        if (locations.isEmpty()) {
+            return usage("domesticate needs the files or folders to check.");
+        }
+        Enzyme enzyme = enzymeName == null ? EnzymeRegistry.getCheckedInstance().getDefault() : EnzymeRegistry.getCheckedInstance().getEnzyme(enzymeName);
+        if (enzyme == null) {
+            return usage("Unknown enzyme " + enzymeName);
+        }
+
+        List<SequenceRecord> parts = new ArrayList<SequenceRecord>();
+        try {
+            List<File> files = new ArrayList<File>();
+            for (File location : locations) {
+                PartsCatalog.findSequenceFiles(location, files);
+            }
+            for (File file : files) {
+                parts.addAll(SequenceFileReader.read(file)); //Only maps the files, the records are read by the checks.
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 2;
+        }
+        int failed = 0;
+        System.out.println("part\tsite\tstrand\tcds\tfixes");
+        for (DomesticationChecker.Report report : new DomesticationChecker(enzyme).checkAll(parts, numThreads)) {
+            if (!report.isDomesticated()) {
+                failed++;
+            }
+            for (DomesticationChecker.InternalSite site : report.getSites()) {
+                StringBuilder line = new StringBuilder(report.getName());
+                line.append('\t').append(site.getSite().getPosition() + 1);
+                line.append('\t').append(site.getSite().isForward() ? "+" : "-");
+                line.append('\t').append(site.getCds() == null ? "" : site.getCds().getName());
+                line.append('\t');
+                for (int i = 0; i < site.getFixes().size(); i++) {
+                    line.append(i == 0 ? "" : ", ").append(site.getFixes().get(i));
+                }
+                System.out.println(line);
+            }
+        }
+        System.out.println((parts.size() - failed) + " of " + parts.size() + " parts have no internal " + enzyme.dispName() + " sites.");
+        return failed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Compares a construct to a reference and maps reads to it.
+     *
+     * @param args The command line arguments after "verify".
+     * @return The exit code.
+     */
+    private int runVerification(String[] args) {
+        File constructFile = null;
+        File referenceFile = null;
+        List<File> readFiles = new ArrayList<File>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("--construct")) {
+                    constructFile = new File(args[++i]);
+                } else if (arg.equals("--reference")) {
+                    referenceFile = new File(args[++i]);
+                } else if (arg.equals("--reads")) {
+                    readFiles.add(new File(args[++i]));
+                } else {
+                    return usage("Unknown argument " + arg);
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return usage("Missing value for " + args[args.length - 1]);
+        }
+        if (constructFile == null || (referenceFile == null && readFiles.isEmpty())) {
+            return usage("verify needs --construct and --reference or --reads.");
+        }
+
+        boolean passed = true;
+        try {
+            SequenceRecord construct = readRecords(constructFile).get(0);
+            ConstructVerifier verifier = new ConstructVerifier(construct.getSequence(), construct.isCircular());
+            if (referenceFile != null) {
+                ConstructVerifier.Comparison comparison = verifier.compare(readRecords(referenceFile).get(0).getSequence());
+                System.out.println("Reference: " + comparison);
+                passed = comparison.isIdentical();
+            }
+            if (!readFiles.isEmpty()) {
+                ConstructVerifier.ReadMapping mapping = new ConstructVerifier.ReadMapping(construct.getLength());
+                for (File readFile : readFiles) {
+                    for (SequenceRecord read : new SequenceFileReader(readFile)) {
+                        verifier.mapRead(read.getSequence(), mapping);
+                    }
+                }
+                List<ConstructVerifier.Region> discrepancies = mapping.getDiscrepancies(READ_DISCREPANCY_FRACTION);
+                System.out.println("Reads: " + mapping.getMapped() + " mapped, " + mapping.getUnmapped() + " not mapped");
+                System.out.println("Not covered: " + mapping.getUncovered());
+                System.out.println("Disagreeing with the reads: " + discrepancies);
+                passed &= discrepancies.isEmpty();
+            }
+        } catch (IOException e) {
+            System.err.println("Error: " + e.getMessage());
+            return 2;
+        }
+        return passed ? 0 : 1;
+    }
+
+    private int assembleAll(final FragmentAssembler assembler, final PreflightCheck preflight, final SequenceRecord destination, List<String[]> constructs, final File baseDirectory, final File outputDirectory, int numThreads, final boolean fasta) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        List<Future<SequenceRecord>> results = new ArrayList<Future<SequenceRecord>>(constructs.size());
+        for (final String[] construct : constructs) {
+            results.add(executor.submit(new Callable<SequenceRecord>() {
+                public SequenceRecord call() throws IOException, AssemblyException {
+                    List<SequenceRecord> parts = new ArrayList<SequenceRecord>();
+                    for (int i = 1; i < construct.length; i++) {
+                        File file = new File(construct[i]);
+                        parts.addAll(readRecords(file.isAbsolute() ? file : new File(baseDirectory, construct[i])));
+                    }
+                    //Designs that cannot work are caught from the sequences before anything is assembled.
+                    List<SequenceRecord> records = new ArrayList<SequenceRecord>(parts.size() + 1);
+                    records.add(destination);
+                    records.addAll(parts);
+                    long start = System.nanoTime();
+                    List<String> problems = preflight.findProblems(records);
+                    assembler.getMetrics().addTime(AssemblyMetrics.Stage.PREFLIGHT, start);
+                    if (!problems.isEmpty()) {
+                        StringBuilder message = new StringBuilder();
+                        for (String problem : problems) {
+                            message.append(message.length() == 0 ? "" : " ").append(problem);
+                        }
+                        throw new AssemblyException(message.toString());
+                    }
+                    SequenceRecord result = assembler.assemble(construct[0], destination, parts);
+                    write(result, new File(outputDirectory, construct[0] + (fasta ? ".fasta" : ".gb")), fasta);
+                    return result;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        int failed = 0;
+        Writer summary = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outputDirectory, "summary.tsv")), "UTF-8"));
+        try {
+            summary.write("construct\tstatus\tlength\tmessage\n");
+            for (int i = 0; i < constructs.size(); i++) {
+                String name = constructs.get(i)[0];
+                try {
+                    SequenceRecord result = results.get(i).get();
+                    summary.write(name + "\tok\t" + result.getLength() + "\t\n");
+                } catch (ExecutionException e) {
+                    failed++;
+                    summary.write(name + "\tfailed\t\t" + e.getCause().getMessage() + "\n");
+                    System.err.println(name + ": " + e.getCause().getMessage());
+                } catch (InterruptedException e) {
+                    executor.shutdownNow();
+                    throw new IOException("Interrupted.");
+                }
+            }
+        } finally {
+            summary.close();
+        }
+        System.out.println((constructs.size() - failed) + " of " + constructs.size() + " constructs assembled.");
+        assembler.getMetrics().finish();
+        System.out.println(assembler.getMetrics().getSummary());
+        return failed == 0 ? 0 : 1;
+    }
+
+    private List<String[]> readManifest(File manifest) throws IOException {
+        List<String[]> constructs = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.length() > 0 && !line.startsWith("#")) {
+                    constructs.add(line.split("\\s+"));
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return constructs;
+    }
+
+    //The same modules are used in many constructs, so each file is only read once.
+    private synchronized List<SequenceRecord> readRecords(File file) throws IOException {
+        List<SequenceRecord> records = files.get(file);
+        if (records == null) {
+            records = SequenceFileReader.read(file);
+            if (records.isEmpty()) {
+                throw new IOException(file + " does not contain any sequences.");
+            }
+            files.put(file, records);
+        }
+        return records;
+    }
+
+    private void write(SequenceRecord record, File file, boolean fasta) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "US-ASCII"));
+        try {
+            if (fasta) {
+                SequenceFileWriter.writeFasta(record, out);
+            } else {
+                SequenceFileWriter.writeGenBank(record, out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private int usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: GreenGateBatch --manifest FILE --destination FILE --out DIRECTORY [--enzyme NAME] [--threads N] [--cache-dir DIRECTORY] [--fasta]");
+        System.err.println("       GreenGateBatch catalog --index FILE [--enzyme NAME] [--threads N] [--left OVERHANG] [FOLDER...]");
+        System.err.println("       GreenGateBatch domesticate [--enzyme NAME] [--threads N] FILE_OR_FOLDER...");
+        System.err.println("       GreenGateBatch verify --construct FILE [--reference FILE] [--reads FILE]...");
+        return 2;
+    }
+
+    private static final long DIGEST_CACHE_BASES = 50000000;
+    //The share of the reads that have to disagree with a position of the construct for it to be reported.
+    private static final double READ_DISCREPANCY_FRACTION = 0.5;
+
+    private final Map<File, List<SequenceRecord>> files = new HashMap<File, List<SequenceRecord>>();
+}
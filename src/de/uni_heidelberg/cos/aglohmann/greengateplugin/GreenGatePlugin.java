@@ -7,9 +7,13 @@ import com.biomatters.geneious.publicapi.plugin.*;
 import com.biomatters.geneious.publicapi.utilities.IconUtilities;
 import jebl.util.ProgressListener;
 
+import java.io.File;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * @author Matyas Medzihradszky
@@ -20,6 +24,7 @@ public class GreenGatePlugin extends GeneiousPlugin {
     public GreenGatePlugin() {
         super();
         getIconFile();
+        EnzymeRegistry.getInstance(); //Load the enzymes and compile their site scanners once, when the plugin loads.
     }
 
     public String getName() {
@@ -54,6 +59,30 @@ public class GreenGatePlugin extends GeneiousPlugin {
         return new DocumentOperation[]{greenGate};
     }
 
+    /**
+     * The digestion results are kept for the whole session. They are also stored on disk if the greengate.cacheDir
+     * +system property points to a directory.
+     */
+    private static DigestCache createDigestCache() {
+        String cacheDirectory = System.getProperty("greengate.cacheDir");
+        return new DigestCache(DIGEST_CACHE_BASES, cacheDirectory == null ? null : new File(cacheDirectory));
+    }
+
+    /**
+     * The documents are digested in the background while the options dialog is open. The threads are daemons with a
+     * +low priority, so they neither keep Geneious from exiting nor slow down the interface.
+     */
+    private static ExecutorService createBackgroundExecutor() {
+        return Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() - 1), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "GreenGate background digest");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
     private void getIconFile() {
         ggIcon = IconUtilities.getIconsFromJar(GreenGatePlugin.class, "/ggcloning24.png");
     }
@@ -74,26 +103,39 @@ public class GreenGatePlugin extends GeneiousPlugin {
 
         //Opens a JPanel where the needed plasmids can be entered and options set.
         public Options getOptions(AnnotatedPluginDocument... documents) throws DocumentOperationException {
-            GGOptions = new GreenGateOptions(documents);
+            GGOptions = new GreenGateOptions(backgroundExecutor, digestCache, documents);
             return GGOptions;
         }
 
         //All of the operation logic is called from here. Options, and the selected documents are passed in.
         public List<AnnotatedPluginDocument> performOperation(AnnotatedPluginDocument[] docs, ProgressListener progress, Options options) {
-            seqAssembler = new SequenceAssembler();
+            GGOptions.cancelDigests();
+            ExecutorService executor = Executors.newFixedThreadPool(GGOptions.getNumThreads());
+            seqAssembler = new SequenceAssembler(executor, digestCache);
             AnnotatedPluginDocument[] vectors = GGOptions.getWorkingDocuments();
             Enzyme digestionEnzyme = GGOptions.getEnzyme();
             List<AnnotatedPluginDocument> results = new LinkedList<AnnotatedPluginDocument>();
             try {
-                results = seqAssembler.performCloning(digestionEnzyme, Arrays.asList(vectors));
+                if (GGOptions.isLibraryMode()) {
+                    results = seqAssembler.performLibraryCloning(digestionEnzyme, Arrays.asList(vectors), progress);
+                } else {
+                    results = seqAssembler.performCloning(digestionEnzyme, Arrays.asList(vectors), progress);
+                }
             } catch (DocumentOperationException e) {
                 Dialogs.showMessageDialog("GreenGate cloning failed.\n" + "Error:\n" + e.getMessage());
                 e.printStackTrace();
+            } finally {
+                executor.shutdownNow();
             }
             return results;
         }
     };
 
+    //The number of nucleotides of digested fragments kept in memory between runs.
+    private static final long DIGEST_CACHE_BASES = 50000000;
+
+    private final DigestCache digestCache = createDigestCache();
+    private final ExecutorService backgroundExecutor = createBackgroundExecutor();
     private SequenceAssembler seqAssembler;
     private GreenGateOptions GGOptions;
     private Icons ggIcon;
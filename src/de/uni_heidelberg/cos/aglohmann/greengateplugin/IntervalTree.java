@@ -0,0 +1,116 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A static interval tree. The intervals are sorted by their start and the array is used as an implicit balanced
+ * +binary tree, where every node also stores the largest end found below it. Finding the intervals within a region
+ * +then only visits the parts of the tree that can contain them.
+ * Intervals are half open, [start, end), and all intervals have to be added before the first search.
+ *
+ * @param <T> The type of the values stored with the intervals.
+ */
+public class IntervalTree<T> {
+
+    public void add(int start, int end, T value) {
+        if (built) {
+            throw new IllegalStateException("Intervals cannot be added after the tree has been searched.");
+        }
+        nodes.add(new Node<T>(start, end, value));
+    }
+
+    public int size() {return nodes.size();}
+
+    /**
+     * Finds the intervals lying completely within a region.
+     *
+     * @param from The start of the region.
+     * @param to The end of the region, exclusive.
+     * @param results The values of the intervals found are added to this list, in the order of their start.
+     */
+    public void findContained(int from, int to, List<T> results) {
+        build();
+        find(0, sorted.length, from, to, true, results);
+    }
+
+    /**
+     * Finds the intervals sharing at least one position with a region.
+     *
+     * @param from The start of the region.
+     * @param to The end of the region, exclusive.
+     * @param results The values of the intervals found are added to this list, in the order of their start.
+     */
+    public void findOverlapping(int from, int to, List<T> results) {
+        build();
+        find(0, sorted.length, from, to, false, results);
+    }
+
+    private void find(int lo, int hi, int from, int to, boolean contained, List<T> results) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (maxEnds[mid] <= from) {
+            return; //Nothing below this node reaches into the region.
+        }
+        find(lo, mid, from, to, contained, results);
+        Node<T> node = sorted[mid];
+        if (node.start >= to) {
+            return; //This node and everything to its right starts after the region.
+        }
+        if (contained ? node.start >= from && node.end <= to : node.end > from) {
+            results.add(node.value);
+        }
+        find(mid + 1, hi, from, to, contained, results);
+    }
+
+    private synchronized void build() {
+        if (built) {
+            return;
+        }
+        sorted = nodes.toArray(IntervalTree.<T>newNodes(nodes.size()));
+        Arrays.sort(sorted, new Comparator<Node<T>>() {
+            public int compare(Node<T> n1, Node<T> n2) {
+                return n1.start < n2.start ? -1 : (n1.start == n2.start ? 0 : 1);
+            }
+        });
+        maxEnds = new int[sorted.length];
+        computeMaxEnds(0, sorted.length);
+        built = true;
+    }
+
+    private int computeMaxEnds(int lo, int hi) {
+        if (lo >= hi) {
+            return Integer.MIN_VALUE;
+        }
+        int mid = (lo + hi) >>> 1;
+        maxEnds[mid] = Math.max(sorted[mid].end, Math.max(computeMaxEnds(lo, mid), computeMaxEnds(mid + 1, hi)));
+        return maxEnds[mid];
+    }
+
+    //Arrays of a generic type can only be created unchecked. The array never leaves the tree.
+    @SuppressWarnings("unchecked")
+    private static <T> Node<T>[] newNodes(int size) {
+        return (Node<T>[])new Node<?>[size];
+    }
+
+    private static final class Node<T> {
+        Node(int start, int end, T value) {
+            this.start = start;
+            this.end = end;
+            this.value = value;
+        }
+
+        final int start;
+        final int end;
+        final T value;
+    }
+
+    private final List<Node<T>> nodes = new ArrayList<Node<T>>();
+    private Node<T>[] sorted;
+    private int[] maxEnds; //The largest end in the subtree below each node.
+    private volatile boolean built = false;
+}
@@ -0,0 +1,185 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+/**
+ * One end of a digested fragment. The sequence of the overhang is always given as it reads on the top strand, while
+ * +isTopStrand() tells which strand the single stranded nucleotides are on. Two ends can be ligated together if their
+ * +sequences are the same and the single stranded nucleotides are on opposite strands.
+ * A blunt end is an overhang with an empty sequence.
+ *
+ * Overhangs are immutable. The sequence, its length and the strand are packed into a single int (see getCode()), two
+ * +bits per nucleotide, so overhangs are compared and matched without touching any strings. Only overhangs that
+ * +cannot be packed, because they are too long or contain other letters than A, C, G and T, keep their sequence as a
+ * +string and are compared by it.
+ */
+public final class Overhang {
+
+    public Overhang(String sequence, int position, boolean topStrand) {
+        this(sequence, 0, sequence.length(), position, topStrand);
+    }
+
+    /**
+     * Reads an overhang straight from a longer sequence, without copying it.
+     *
+     * @param sequence The sequence containing the overhang.
+     * @param start The index of the first nucleotide of the overhang.
+     * @param end The index after the last nucleotide of the overhang.
+     * @param position The index of the first overhang nucleotide in the digested sequence.
+     * @param topStrand Whether the single stranded nucleotides are on the top strand.
+     */
+    public Overhang(CharSequence sequence, int start, int end, int position, boolean topStrand) {
+        this.position = position;
+        int code = encode(sequence, start, end);
+        if (code == NO_CODE) {
+            this.code = NO_CODE;
+            this.sequence = sequence.subSequence(start, end).toString().toUpperCase();
+            this.topStrand = topStrand;
+        } else {
+            this.code = code | (topStrand ? TOP_STRAND_BIT : 0);
+            this.sequence = null;
+            this.topStrand = topStrand;
+        }
+    }
+
+    private Overhang(int code, String sequence, int position, boolean topStrand) {
+        this.code = code;
+        this.sequence = sequence;
+        this.position = position;
+        this.topStrand = topStrand;
+    }
+
+    /**
+     * @return The sequence of the overhang in uppercase, as it reads on the top strand.
+     */
+    public String getSequence() {
+        return sequence != null ? sequence : decode(code, length());
+    }
+
+    /**
+     * The packed form of the overhang. The lowest 2 * length() bits hold the nucleotides, two bits each and the first
+     * +nucleotide highest, bits 24 to 28 the length and bit 29 the strand. Two packed overhangs are the same if their
+     * +codes are equal, and can be ligated if their codes only differ in the strand bit.
+     *
+     * @return The code, or NO_CODE if the overhang cannot be packed.
+     */
+    public int getCode() {return code;}
+
+    /**
+     * @return The code of the sequence alone, without the strand: the same for the two ends that can be ligated.
+     */
+    public int getSequenceCode() {return code == NO_CODE ? NO_CODE : code & ~TOP_STRAND_BIT;}
+
+    /**
+     * @return The index of the first overhang nucleotide in the digested sequence.
+     */
+    public int getPosition() {return position;}
+
+    public boolean isTopStrand() {return topStrand;}
+
+    public int length() {return sequence != null ? sequence.length() : (code >>> LENGTH_SHIFT) & LENGTH_MASK;}
+
+    public boolean isBlunt() {return length() == 0;}
+
+    /**
+     * Checks whether this end can be ligated to another one.
+     * The sequences have to be the same: the assembly only plans the ligations the reaction is designed for. Ends that
+     * +differ in a nucleotide or two can still ligate by mistake in the real reaction, but they are never used to build
+     * +a construct. Such near misses are only reported, by the checks using the OverhangMatrix.
+     *
+     * @param other The other end. Can be null, which never matches.
+     * @return True if the two ends are compatible sticky ends.
+     */
+    public boolean matches(Overhang other) {
+        if (other == null || isBlunt()) {
+            return false;
+        }
+        if (code != NO_CODE) {
+            return (code ^ other.code) == TOP_STRAND_BIT;
+        }
+        return other.code == NO_CODE && topStrand != other.topStrand && sequence.equals(other.sequence);
+    }
+
+    /**
+     * @return The end this overhang could be ligated to.
+     */
+    public Overhang partner() {
+        return new Overhang(code == NO_CODE ? NO_CODE : code ^ TOP_STRAND_BIT, sequence, position, !topStrand);
+    }
+
+    /**
+     * Packs a sequence of nucleotides into an int, without the strand.
+     *
+     * @return The code, or NO_CODE if the sequence is too long or contains other letters than A, C, G and T.
+     */
+    static int encode(CharSequence sequence, int start, int end) {
+        int length = end - start;
+        if (length > MAX_CODED_LENGTH) {
+            return NO_CODE;
+        }
+        int code = 0;
+        for (int i = start; i < end; i++) {
+            int base;
+            switch (sequence.charAt(i)) {
+                case 'A': case 'a': base = 0; break;
+                case 'C': case 'c': base = 1; break;
+                case 'G': case 'g': base = 2; break;
+                case 'T': case 't': base = 3; break;
+                default: return NO_CODE;
+            }
+            code = (code << 2) | base;
+        }
+        return code | (length << LENGTH_SHIFT);
+    }
+
+    /**
+     * Unpacks the nucleotides of a code.
+     *
+     * @param code The code. Only the lowest 2 * length bits are read.
+     * @param length The number of nucleotides.
+     */
+    static String decode(int code, int length) {
+        char[] bases = new char[length];
+        for (int i = 0; i < length; i++) {
+            bases[i] = BASES[(code >>> (2 * (length - 1 - i))) & 3];
+        }
+        return new String(bases);
+    }
+
+    //Two overhangs are equal if they can stand in for each other in a ligation, so the position is not compared.
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Overhang)) {
+            return false;
+        }
+        Overhang other = (Overhang)o;
+        if (code != NO_CODE || other.code != NO_CODE) {
+            return code == other.code;
+        }
+        return topStrand == other.topStrand && sequence.equals(other.sequence);
+    }
+
+    @Override
+    public int hashCode() {
+        return code != NO_CODE ? code : 31 * sequence.hashCode() + (topStrand ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return topStrand ? getSequence() : "(" + getSequence() + ")";
+    }
+
+    /**
+     * The code of the overhangs that cannot be packed.
+     */
+    public static final int NO_CODE = -1;
+    //The longest overhang that can be packed. Type IIS enzymes leave at most 5 nucleotides.
+    static final int MAX_CODED_LENGTH = 12;
+    static final int LENGTH_SHIFT = 24;
+    static final int LENGTH_MASK = 0x1F;
+    static final int TOP_STRAND_BIT = 1 << 29;
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+
+    private final int code;
+    private final String sequence; //Only for overhangs that cannot be packed, in uppercase.
+    private final int position;
+    private final boolean topStrand;
+}
@@ -0,0 +1,162 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Stores fragments by the overhangs at their ends, so the fragment that can be ligated to a given end is found with a
+ * +single lookup. Each fragment can be taken out of the index once, through either of its ends.
+ * The ends are stored in an open addressing table keyed by the packed code of the overhang, so finding a partner does
+ * +not create any objects. Overhangs that cannot be packed are kept in a map of their own.
+ *
+ * @param <T> The type of the fragments stored. (Documents, or anything else the overhangs are known for.)
+ */
+public class OverhangIndex<T> {
+
+    /**
+     * Adds a fragment to the index.
+     *
+     * @param item The fragment.
+     * @param leftOverhang The overhang at the start of the fragment.
+     * @param rightOverhang The overhang at the end of the fragment.
+     * @return The entry of the fragment in the index.
+     */
+    public Entry<T> add(T item, Overhang leftOverhang, Overhang rightOverhang) {
+        Entry<T> entry = new Entry<T>(item, leftOverhang, rightOverhang);
+        addEnd(leftOverhang, entry);
+        addEnd(rightOverhang, entry);
+        size++;
+        return entry;
+    }
+
+    /**
+     * Finds a fragment that can be ligated to the given end and removes it from the index.
+     *
+     * @param freeEnd The end we are trying to find a match to.
+     * @return The first fragment added with a matching end, or null if there is none left.
+     */
+    public Entry<T> take(Overhang freeEnd) {
+        if (freeEnd == null || freeEnd.isBlunt()) {
+            return null;
+        }
+        LinkedList<Entry<T>> entries;
+        if (freeEnd.getCode() != Overhang.NO_CODE) {
+            entries = buckets[findSlot(freeEnd.getCode() ^ Overhang.TOP_STRAND_BIT)];
+        } else {
+            entries = uncodedEnds.get(freeEnd.partner());
+        }
+        if (entries == null) {
+            return null;
+        }
+        //Entries already taken through their other end are only dropped from this list when we come across them.
+        while (!entries.isEmpty()) {
+            Entry<T> entry = entries.removeFirst();
+            if (!entry.taken) {
+                entry.taken = true;
+                size--;
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    public int size() {return size;}
+
+    public boolean isEmpty() {return size == 0;}
+
+    private void addEnd(Overhang overhang, Entry<T> entry) {
+        if (overhang == null || overhang.isBlunt()) {
+            return;
+        }
+        if (overhang.getCode() == Overhang.NO_CODE) {
+            LinkedList<Entry<T>> entries = uncodedEnds.get(overhang);
+            if (entries == null) {
+                entries = new LinkedList<Entry<T>>();
+                uncodedEnds.put(overhang, entries);
+            }
+            entries.add(entry);
+            return;
+        }
+        int slot = findSlot(overhang.getCode());
+        if (buckets[slot] == null) {
+            if (2 * (numCodes + 1) > keys.length) {
+                grow();
+                slot = findSlot(overhang.getCode());
+            }
+            keys[slot] = overhang.getCode();
+            buckets[slot] = new LinkedList<Entry<T>>();
+            numCodes++;
+        }
+        buckets[slot].add(entry);
+    }
+
+    //The slot holding a code, or the empty slot where it would go. The table is never more than half full.
+    private int findSlot(int code) {
+        int mask = keys.length - 1;
+        int hash = code * 0x9E3779B9;
+        int slot = (hash ^ (hash >>> 16)) & mask;
+        while (buckets[slot] != null && keys[slot] != code) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        LinkedList<Entry<T>>[] oldBuckets = buckets;
+        keys = new int[oldKeys.length * 2];
+        buckets = newBuckets(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldBuckets[i] != null) {
+                int slot = findSlot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                buckets[slot] = oldBuckets[i];
+            }
+        }
+    }
+
+    //Arrays of a generic type cannot be created directly.
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <T> LinkedList<Entry<T>>[] newBuckets(int size) {
+        return new LinkedList[size];
+    }
+
+    /**
+     * A fragment stored in the index, with both of its ends.
+     */
+    public static final class Entry<T> {
+        Entry(T item, Overhang leftOverhang, Overhang rightOverhang) {
+            this.item = item;
+            this.leftOverhang = leftOverhang;
+            this.rightOverhang = rightOverhang;
+        }
+
+        public T getItem() {return item;}
+
+        public Overhang getLeftOverhang() {return leftOverhang;}
+
+        public Overhang getRightOverhang() {return rightOverhang;}
+
+        /**
+         * @param joinedEnd The end the fragment was ligated to.
+         * @return The end of the fragment that is still free after the ligation.
+         */
+        public Overhang getOtherEnd(Overhang joinedEnd) {
+            return leftOverhang != null && leftOverhang.matches(joinedEnd) ? rightOverhang : leftOverhang;
+        }
+
+        private final T item;
+        private final Overhang leftOverhang;
+        private final Overhang rightOverhang;
+        private boolean taken = false;
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] keys = new int[INITIAL_CAPACITY];
+    private LinkedList<Entry<T>>[] buckets = newBuckets(INITIAL_CAPACITY);
+    private int numCodes = 0;
+    private final Map<Overhang, LinkedList<Entry<T>>> uncodedEnds = new HashMap<Overhang, LinkedList<Entry<T>>>();
+    private int size = 0;
+}
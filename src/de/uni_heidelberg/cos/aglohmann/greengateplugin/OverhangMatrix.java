@@ -0,0 +1,166 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The ligation fidelity of all overhangs of one length, worked out once so sets of overhangs can be checked with
+ * +table lookups.
+ * Ligases also join overhangs that do not match perfectly, and a fragment can be ligated the wrong way round, in which
+ * +case its overhang is read as its reverse complement. The distance of two overhangs is therefore the number of
+ * +mismatching nucleotides between the first and the second one or its reverse complement, whichever is fewer. Sets
+ * +where two overhangs are less than MIN_DISTANCE apart, or that contain a palindrome (an overhang that is its own
+ * +reverse complement, so a fragment can join a flipped copy of itself), risk wrong products.
+ * The overhangs are numbered by their packed sequence (Overhang.getSequenceCode() without the length).
+ */
+public class OverhangMatrix {
+
+    /**
+     * @param length The length of the overhangs, at most MAX_TABLE_LENGTH.
+     * @return The matrix of all overhangs of the length. Matrices are created once and shared.
+     */
+    public static synchronized OverhangMatrix forLength(int length) {
+        if (length < 1 || length > MAX_TABLE_LENGTH) {
+            throw new IllegalArgumentException("Overhang matrices are only made for 1 to " + MAX_TABLE_LENGTH + " nucleotides, not " + length);
+        }
+        OverhangMatrix matrix = matrices.get(length);
+        if (matrix == null) {
+            matrix = new OverhangMatrix(length);
+            matrices.put(length, matrix);
+        }
+        return matrix;
+    }
+
+    private OverhangMatrix(int length) {
+        this.length = length;
+        this.size = 1 << (2 * length);
+        this.reverseComplements = new int[size];
+        for (int code = 0; code < size; code++) {
+            int reverse = 0;
+            for (int i = 0; i < length; i++) {
+                reverse = (reverse << 2) | (3 - ((code >>> (2 * i)) & 3)); //The complement of base b is 3 - b.
+            }
+            reverseComplements[code] = reverse;
+        }
+        this.distances = new byte[size * size];
+        for (int a = 0; a < size; a++) {
+            for (int b = 0; b < size; b++) {
+                distances[a * size + b] = (byte)Math.min(mismatches(a, b), mismatches(a, reverseComplements[b]));
+            }
+        }
+    }
+
+    public int getLength() {return length;}
+
+    public int reverseComplement(int code) {return reverseComplements[code];}
+
+    public boolean isPalindrome(int code) {return reverseComplements[code] == code;}
+
+    /**
+     * @return The number of mismatches between two overhangs, taking the better of the two orientations of the second.
+     */
+    public int getDistance(int a, int b) {
+        return distances[a * size + b];
+    }
+
+    /**
+     * Finds the pairs of overhangs in a set that can be ligated to each other by mistake, and the palindromes.
+     *
+     * @param overhangs The overhangs used in an assembly. Each is only counted once, whatever its strand.
+     * @param minDistance Pairs of overhangs closer than this are reported. MIN_DISTANCE for the usual fidelity rule,
+     *                    +1 to only find overhangs that are the reverse complement of each other.
+     * @return A message for every problem found. Empty if the set is safe.
+     */
+    public List<String> findCrossTalk(Collection<Overhang> overhangs, int minDistance) {
+        Set<Integer> codes = new LinkedHashSet<Integer>();
+        for (Overhang overhang : overhangs) {
+            int code = getIndex(overhang);
+            if (code >= 0) {
+                codes.add(code);
+            }
+        }
+        int[] set = new int[codes.size()];
+        int n = 0;
+        for (int code : codes) {
+            set[n++] = code;
+        }
+
+        List<String> problems = new ArrayList<String>();
+        for (int i = 0; i < set.length; i++) {
+            if (isPalindrome(set[i])) {
+                problems.add(toSequence(set[i]) + " is palindromic, so its fragments can join each other.");
+            }
+            for (int j = i + 1; j < set.length; j++) {
+                int distance = getDistance(set[i], set[j]);
+                if (distance == 0 && distance < minDistance) {
+                    problems.add(toSequence(set[i]) + " and " + toSequence(set[j]) + " are reverse complements, so either fragment can be ligated in the wrong orientation.");
+                } else if (distance < minDistance) {
+                    problems.add(toSequence(set[i]) + " and " + toSequence(set[j]) + " differ in only " + distance + (distance == 1 ? " nucleotide" : " nucleotides") + " and can be ligated to each other.");
+                }
+            }
+        }
+        return problems;
+    }
+
+    /**
+     * Finds the overhang among a set that comes closest to ligating to an end, for explaining why an end has no partner.
+     *
+     * @param end The free end.
+     * @param candidates The overhangs available.
+     * @return The closest overhang, or null if there are none of the same length.
+     */
+    public Overhang findClosest(Overhang end, Collection<Overhang> candidates) {
+        int code = getIndex(end);
+        Overhang closest = null;
+        int best = Integer.MAX_VALUE;
+        if (code < 0) {
+            return null;
+        }
+        for (Overhang candidate : candidates) {
+            int other = getIndex(candidate);
+            if (other >= 0 && distances[code * size + other] < best) {
+                best = distances[code * size + other];
+                closest = candidate;
+            }
+        }
+        return closest;
+    }
+
+    //The number of the overhang in the tables, or -1 if it has another length or cannot be packed.
+    private int getIndex(Overhang overhang) {
+        if (overhang == null || overhang.getCode() == Overhang.NO_CODE || overhang.length() != length) {
+            return -1;
+        }
+        return overhang.getSequenceCode() & (size - 1);
+    }
+
+    private String toSequence(int code) {
+        return Overhang.decode(code, length);
+    }
+
+    private int mismatches(int a, int b) {
+        int difference = a ^ b;
+        return Integer.bitCount((difference | (difference >>> 1)) & 0x55555555); //One bit set per differing base.
+    }
+
+    /**
+     * Overhangs closer than this are flagged as cross-talk.
+     */
+    public static final int MIN_DISTANCE = 2;
+    /**
+     * The longest overhangs tables are made for. A table takes 16^length bytes.
+     */
+    public static final int MAX_TABLE_LENGTH = 5;
+
+    private static final Map<Integer, OverhangMatrix> matrices = new HashMap<Integer, OverhangMatrix>();
+
+    private final int length;
+    private final int size;
+    private final int[] reverseComplements;
+    private final byte[] distances;
+}
@@ -0,0 +1,239 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Creates random GreenGate part sets for testing the assembly at any scale. Each construct is a destination vector
+ * +and a set of entry modules: every module carries its insert between two recognition sites facing inwards, the
+ * +destination vector carries a stuffer between two sites facing outwards, and the overhangs are chosen so that the
+ * +fragments join in a circle in the order of the modules. The rest of the sequence is random, without recognition
+ * +sites, and the sequence the construct should come out as is known.
+ *
+ * Besides the sizes, the generator controls the number of features on the parts, the share of modules with an
+ * +internal site (which cannot be assembled and must be reported), and the share of modules rotated so one of their
+ * +sites spans the origin. The same seed always gives the same parts.
+ */
+public class PartSetGenerator {
+
+    /**
+     * @param enzyme The enzyme of the reaction.
+     * @param seed The seed of the random sequences.
+     */
+    public PartSetGenerator(Enzyme enzyme, long seed) {
+        this.enzyme = enzyme;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * @param featureSpacing The distance between the starts of the features on each part, or 0 for no features.
+     */
+    public void setFeatureSpacing(int featureSpacing) {this.featureSpacing = featureSpacing;}
+
+    /**
+     * @param contamination The share of the modules given a site inside their insert, from 0 to 1.
+     */
+    public void setContamination(double contamination) {this.contamination = contamination;}
+
+    /**
+     * @param originSites The share of the modules rotated so that their first site spans the origin, from 0 to 1.
+     */
+    public void setOriginSites(double originSites) {this.originSites = originSites;}
+
+    /**
+     * @return The most modules a single construct can have with the overhangs of the enzyme: every overhang has to be
+     * +different from the others and their reverse complements, and must not be a palindrome.
+     */
+    public int getMaxModules() {
+        int length = enzyme.overhang();
+        int all = 1 << (2 * length);
+        int palindromes = length % 2 == 0 ? 1 << length : 0;
+        return (all - palindromes) / 2 - 1;
+    }
+
+    /**
+     * Creates the parts of a single construct.
+     *
+     * @param name The name of the construct. The parts are named after it.
+     * @param constructLength The approximate length of the assembled construct.
+     * @param numModules The number of entry modules, at most getMaxModules().
+     * @return The construct.
+     */
+    public Construct generate(String name, int constructLength, int numModules) {
+        if (numModules < 1 || numModules > getMaxModules()) {
+            throw new IllegalArgumentException("A construct can have 1 to " + getMaxModules() + " modules with " + enzyme.dispName() + ", not " + numModules);
+        }
+        List<String> overhangs = chooseOverhangs(numModules + 1, enzyme.overhang());
+        int partLength = Math.max(MIN_PART_LENGTH, constructLength / (numModules + 1));
+        String site = enzyme.recognitionSite();
+        String reverseSite = enzyme.revRecSite();
+        int spacer = enzyme.cutSite() - site.length();
+
+        StringBuilder expected = new StringBuilder();
+        SequenceRecord destination;
+        do {
+            String part = randomBases(partLength);
+            StringBuilder sequence = new StringBuilder();
+            sequence.append(overhangs.get(numModules)).append(part).append(overhangs.get(0));
+            sequence.append(randomBases(spacer)).append(reverseSite).append(randomBases(STUFFER_LENGTH)).append(site).append(randomBases(spacer));
+            destination = createRecord(name + " destination", sequence, 2);
+            expected.setLength(0);
+            expected.append(overhangs.get(numModules)).append(part);
+        } while (destination == null);
+
+        List<SequenceRecord> modules = new ArrayList<SequenceRecord>(numModules);
+        List<String> contaminated = new ArrayList<String>();
+        for (int i = 0; i < numModules; i++) {
+            String moduleName = name + " module " + (i + 1);
+            boolean dirty = random.nextDouble() < contamination;
+            boolean rotated = random.nextDouble() < originSites;
+            SequenceRecord module;
+            String part;
+            do {
+                part = randomBases(partLength);
+                String insert = dirty ? part.substring(0, part.length() / 2) + site + part.substring(part.length() / 2 + site.length()) : part;
+                StringBuilder sequence = new StringBuilder();
+                sequence.append(randomBases(BACKBONE_LENGTH)).append(site).append(randomBases(spacer));
+                sequence.append(overhangs.get(i)).append(insert).append(overhangs.get(i + 1));
+                sequence.append(randomBases(spacer)).append(reverseSite);
+                if (rotated) { //The origin goes through the middle of the first site.
+                    int origin = BACKBONE_LENGTH + site.length() / 2;
+                    String joined = sequence.toString();
+                    sequence.setLength(0);
+                    sequence.append(joined, origin, joined.length()).append(joined, 0, origin);
+                }
+                module = createRecord(moduleName, sequence, dirty ? 3 : 2);
+                part = insert;
+            } while (module == null);
+            modules.add(module);
+            expected.append(overhangs.get(i)).append(part);
+            if (dirty) {
+                contaminated.add(moduleName);
+            }
+        }
+        return new Construct(name, destination, modules, expected.toString(), contaminated);
+    }
+
+    /**
+     * Creates many constructs, for part sets larger than a single construct can take.
+     *
+     * @param numModules The number of modules of all the constructs together.
+     * @param modulesPerConstruct The number of modules of each construct. The last one can have fewer.
+     * @param partLength The length of the insert of each part.
+     * @return The constructs.
+     */
+    public List<Construct> generateSet(int numModules, int modulesPerConstruct, int partLength) {
+        List<Construct> constructs = new ArrayList<Construct>();
+        for (int first = 0; first < numModules; first += modulesPerConstruct) {
+            int count = Math.min(modulesPerConstruct, numModules - first);
+            constructs.add(generate("construct" + (constructs.size() + 1), partLength * (count + 1), count));
+        }
+        return constructs;
+    }
+
+    /**
+     * The parts of one construct and the construct they should give.
+     */
+    public static final class Construct {
+        Construct(String name, SequenceRecord destination, List<SequenceRecord> modules, String expectedSequence, List<String> contaminated) {
+            this.name = name;
+            this.destination = destination;
+            this.modules = modules;
+            this.expectedSequence = expectedSequence;
+            this.contaminated = contaminated;
+        }
+
+        public String getName() {return name;}
+
+        public SequenceRecord getDestination() {return destination;}
+
+        public List<SequenceRecord> getModules() {return modules;}
+
+        /**
+         * @return The destination vector followed by the modules.
+         */
+        public List<SequenceRecord> getParts() {
+            List<SequenceRecord> parts = new ArrayList<SequenceRecord>(modules.size() + 1);
+            parts.add(destination);
+            parts.addAll(modules);
+            return parts;
+        }
+
+        /**
+         * @return The sequence of the circular construct, starting with the fragment of the destination vector.
+         */
+        public String getExpectedSequence() {return expectedSequence;}
+
+        /**
+         * @return The names of the modules with an internal site.
+         */
+        public List<String> getContaminated() {return contaminated;}
+
+        /**
+         * @return True if the construct should assemble, that is none of its modules has an internal site.
+         */
+        public boolean isAssemblable() {return contaminated.isEmpty();}
+
+        private final String name;
+        private final SequenceRecord destination;
+        private final List<SequenceRecord> modules;
+        private final String expectedSequence;
+        private final List<String> contaminated;
+    }
+
+    //A circular record with features, or null if joining the random pieces made a site, so it has to be made again.
+    private SequenceRecord createRecord(String name, CharSequence sequence, int numSites) {
+        if (enzyme.scanner().scan(sequence, true).size() != numSites) {
+            return null;
+        }
+        List<SequenceFeature> features = new ArrayList<SequenceFeature>();
+        for (int start = 0; featureSpacing > 0 && start + FEATURE_LENGTH < sequence.length(); start += featureSpacing) {
+            features.add(new SequenceFeature("misc_feature", name + " feature " + features.size(), start, start + FEATURE_LENGTH, random.nextBoolean()));
+        }
+        return new SequenceRecord(name, sequence.toString(), true, features);
+    }
+
+    //Distinct overhangs that are not palindromes and do not join to each other's reverse complement.
+    private List<String> chooseOverhangs(int count, int length) {
+        List<String> candidates = new ArrayList<String>();
+        for (int code = 0; code < 1 << (2 * length); code++) {
+            String overhang = Overhang.decode(code, length);
+            String reverse = Enzyme.reverseComplement(overhang);
+            if (overhang.compareTo(reverse) < 0) { //One of each pair, which also leaves out the palindromes.
+                candidates.add(random.nextBoolean() ? overhang : reverse);
+            }
+        }
+        Collections.shuffle(candidates, random);
+        return candidates.subList(0, count);
+    }
+
+    //Random bases without a recognition site in either orientation.
+    private String randomBases(int length) {
+        String site = enzyme.recognitionSite();
+        String reverseSite = enzyme.revRecSite();
+        StringBuilder bases = new StringBuilder(length);
+        while (bases.length() < length) {
+            bases.append(BASES[random.nextInt(4)]);
+            int tail = bases.length() - site.length();
+            if (tail >= 0 && (bases.indexOf(site, tail) >= 0 || bases.indexOf(reverseSite, tail) >= 0)) {
+                bases.setLength(bases.length() - 1);
+            }
+        }
+        return bases.toString();
+    }
+
+    private static final char[] BASES = {'A', 'C', 'G', 'T'};
+    private static final int BACKBONE_LENGTH = 2000;
+    private static final int STUFFER_LENGTH = 500;
+    private static final int FEATURE_LENGTH = 150;
+    //Long enough for an internal site in the middle of the insert.
+    private static final int MIN_PART_LENGTH = 40;
+
+    private final Enzyme enzyme;
+    private final Random random;
+    private int featureSpacing = 400;
+    private double contamination = 0;
+    private double originSites = 0;
+}
@@ -0,0 +1,625 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A catalog of the parts found in folders of sequence files, stored in an index file so it survives between
+ * +sessions. Every record of every GenBank or FASTA file is digested with the enzyme, and if it gives exactly one
+ * +fragment with two overhangs and no site, it is catalogued with the overhangs of that fragment and the GreenGate
+ * +module type they stand for (see getModuleType()).
+ *
+ * The index file is mapped into memory and searched in place. The parts are stored in fixed size entries sorted by
+ * +their left overhang, so finding all the parts with a given left overhang is a binary search and does not load the
+ * +rest of the catalog. Updating the catalog only reads the files that changed since the last update: a file with the
+ * +same size and modification time is taken as unchanged, and otherwise its content hash decides.
+ *
+ * Index layout, all numbers big endian: the magic number and the version, the enzyme name, the number of files and
+ * +for each its path, size, modification time and SHA-1 hash, the number of parts and the part entries (left overhang
+ * +code, right overhang code, file, record, length, offset of the name), and finally the names. Strings are stored as
+ * +their length followed by their UTF-8 bytes.
+ */
+public class PartsCatalog {
+
+    /**
+     * Opens a catalog. An existing index made with the same enzyme is used straight away, otherwise the catalog starts
+     * +empty until it is updated.
+     *
+     * @param indexFile The file the index is stored in.
+     * @param enzyme The enzyme the parts are digested with.
+     */
+    public PartsCatalog(File indexFile, Enzyme enzyme) {
+        this.indexFile = indexFile;
+        this.enzyme = enzyme;
+        if (indexFile.isFile()) {
+            try {
+                open();
+            } catch (IOException e) {
+                e.printStackTrace(); //A broken index is simply built again.
+                index = null;
+            }
+        }
+    }
+
+    public Enzyme getEnzyme() {return enzyme;}
+
+    /**
+     * @return The number of parts in the catalog.
+     */
+    public int size() {
+        return index == null ? 0 : numParts;
+    }
+
+    /**
+     * Brings the catalog up to date with a set of folders. Files that did not change since the last update are not
+     * +read again, files that are no longer found are dropped from the catalog.
+     *
+     * @param locations The folders to search, including their subfolders, or single sequence files.
+     * @param numThreads The number of files read at the same time.
+     * @return The number of files that had to be read.
+     * @throws IOException If the index cannot be written, or a file cannot be read.
+     */
+    public synchronized int update(List<File> locations, int numThreads) throws IOException {
+        List<File> files = new ArrayList<File>();
+        for (File location : locations) {
+            findSequenceFiles(location, files);
+        }
+        Map<String, IndexedFile> previous = readFiles();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, numThreads));
+        List<Future<IndexedFile>> results = new ArrayList<Future<IndexedFile>>(files.size());
+        try {
+            for (final File file : files) {
+                final IndexedFile old = previous.get(file.getAbsolutePath());
+                results.add(executor.submit(new Callable<IndexedFile>() {
+                    public IndexedFile call() throws IOException {
+                        return indexFile(file, old);
+                    }
+                }));
+            }
+            int read = 0;
+            List<IndexedFile> indexed = new ArrayList<IndexedFile>(files.size());
+            for (Future<IndexedFile> result : results) {
+                IndexedFile file = result.get();
+                if (file.read) {
+                    read++;
+                }
+                indexed.add(file);
+            }
+            write(indexed);
+            open();
+            return read;
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while updating the parts catalog.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Finds all the parts whose fragment starts with an overhang.
+     *
+     * @param leftOverhang The left overhang, as it reads on the top strand. Upper and lower case are treated the same.
+     * @return The parts, in the order they were catalogued.
+     */
+    public List<Part> findByLeftOverhang(String leftOverhang) {
+        List<Part> parts = new ArrayList<Part>();
+        int code = Overhang.encode(leftOverhang, 0, leftOverhang.length());
+        ByteBuffer buffer = index;
+        if (buffer == null || code == Overhang.NO_CODE) {
+            return parts;
+        }
+        //The first entry with the code, by binary search.
+        int lo = 0;
+        int hi = numParts;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (buffer.getInt(partsOffset + mid * PART_SIZE) < code) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        for (int i = lo; i < numParts && buffer.getInt(partsOffset + i * PART_SIZE) == code; i++) {
+            parts.add(readPart(buffer, i));
+        }
+        return parts;
+    }
+
+    /**
+     * Finds all the parts with a pair of overhangs.
+     *
+     * @param leftOverhang The left overhang, as it reads on the top strand.
+     * @param rightOverhang The right overhang, as it reads on the top strand.
+     * @return The parts, in the order they were catalogued.
+     */
+    public List<Part> findByOverhangs(String leftOverhang, String rightOverhang) {
+        List<Part> parts = findByLeftOverhang(leftOverhang);
+        for (int i = parts.size() - 1; i >= 0; i--) {
+            if (!parts.get(i).getRightOverhang().equalsIgnoreCase(rightOverhang)) {
+                parts.remove(i);
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Finds all the parts of a module type.
+     *
+     * @param moduleType A type as returned by getModuleType(), eg. "A", "B-C" or DESTINATION.
+     * @return The parts, ordered by their left overhang.
+     */
+    public List<Part> findByModuleType(String moduleType) {
+        List<Part> parts = new ArrayList<Part>();
+        ByteBuffer buffer = index;
+        for (int i = 0; buffer != null && i < numParts; i++) {
+            Part part = readPart(buffer, i);
+            if (moduleType.equals(part.getModuleType())) {
+                parts.add(part);
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Works out the GreenGate module type of a fragment from its overhangs. A fragment reaching from one module
+     * +overhang to the next is a single module (eg. "C"), one spanning several modules is named by the first and the
+     * +last of them (eg. "B-C"), and a fragment from the last overhang back to the first one is a destination vector.
+     *
+     * @param leftOverhang The left overhang of the fragment, as it reads on the top strand.
+     * @param rightOverhang The right overhang of the fragment, as it reads on the top strand.
+     * @return The module type, or null if the overhangs are not GreenGate overhangs.
+     */
+    public static String getModuleType(String leftOverhang, String rightOverhang) {
+        int from = MODULE_OVERHANGS.indexOf(leftOverhang.toUpperCase());
+        int to = MODULE_OVERHANGS.indexOf(rightOverhang.toUpperCase());
+        if (from < 0 || to < 0) {
+            return null;
+        }
+        if (from < to) {
+            char first = MODULE_NAMES.charAt(from);
+            char last = MODULE_NAMES.charAt(to - 1);
+            return first == last ? String.valueOf(first) : first + "-" + last;
+        }
+        if (from == MODULE_OVERHANGS.size() - 1 && to == 0) {
+            return DESTINATION;
+        }
+        return null;
+    }
+
+    /**
+     * A part in the catalog.
+     */
+    public static final class Part {
+        Part(File file, int record, String name, String leftOverhang, String rightOverhang, int length) {
+            this.file = file;
+            this.record = record;
+            this.name = name;
+            this.leftOverhang = leftOverhang;
+            this.rightOverhang = rightOverhang;
+            this.length = length;
+        }
+
+        /**
+         * @return The sequence file the part is in.
+         */
+        public File getFile() {return file;}
+
+        /**
+         * @return The index of the record of the part in its file.
+         */
+        public int getRecord() {return record;}
+
+        public String getName() {return name;}
+
+        public String getLeftOverhang() {return leftOverhang;}
+
+        public String getRightOverhang() {return rightOverhang;}
+
+        /**
+         * @return The length of the whole record, not of the fragment.
+         */
+        public int getLength() {return length;}
+
+        /**
+         * @return The GreenGate module type, or null if the overhangs are not GreenGate overhangs.
+         */
+        public String getModuleType() {return PartsCatalog.getModuleType(leftOverhang, rightOverhang);}
+
+        /**
+         * Reads the record of the part from its file.
+         */
+        public SequenceRecord read() throws IOException {
+            int i = 0;
+            for (SequenceRecord sequenceRecord : new SequenceFileReader(file)) {
+                if (i++ == record) {
+                    return sequenceRecord;
+                }
+            }
+            throw new IOException(file + " no longer contains " + name + ".");
+        }
+
+        @Override
+        public String toString() {
+            String type = getModuleType();
+            return name + " [" + leftOverhang + " - " + rightOverhang + (type == null ? "" : ", " + type) + "]";
+        }
+
+        private final File file;
+        private final int record;
+        private final String name;
+        private final String leftOverhang;
+        private final String rightOverhang;
+        private final int length;
+    }
+
+    //Reads or reuses the parts of a file. The old entry is reused if the file has not changed.
+    private IndexedFile indexFile(File file, IndexedFile old) throws IOException {
+        long size = file.length();
+        long lastModified = file.lastModified();
+        if (old != null && old.size == size && old.lastModified == lastModified) {
+            return old;
+        }
+        byte[] hash = hash(file);
+        if (old != null && Arrays.equals(old.hash, hash)) {
+            return new IndexedFile(old.path, size, lastModified, hash, old.parts, false);
+        }
+
+        DigestEngine engine = new DigestEngine(enzyme);
+        List<IndexedPart> parts = new ArrayList<IndexedPart>();
+        int record = 0;
+        for (SequenceRecord sequenceRecord : new SequenceFileReader(file)) {
+            Fragment selected = null;
+            int numSelected = 0;
+            for (Fragment fragment : engine.digest(sequenceRecord.getSequence(), sequenceRecord.isCircular())) {
+                if (fragment.isInsert() && isPacked(fragment.getLeftOverhang()) && isPacked(fragment.getRightOverhang())) {
+                    selected = fragment;
+                    numSelected++;
+                }
+            }
+            //Records that give no fragment or several cannot be used as a part on their own, so they are left out.
+            if (numSelected == 1) {
+                parts.add(new IndexedPart(selected.getLeftOverhang().getSequenceCode(), selected.getRightOverhang().getSequenceCode(), record, sequenceRecord.getLength(), sequenceRecord.getName()));
+            }
+            record++;
+        }
+        return new IndexedFile(file.getAbsolutePath(), size, lastModified, hash, parts, true);
+    }
+
+    //The catalog stores the overhangs in their packed form, so parts with overhangs that cannot be packed are left out.
+    private static boolean isPacked(Overhang overhang) {
+        return overhang.getCode() != Overhang.NO_CODE;
+    }
+
+    /**
+     * Finds the GenBank and FASTA files in a folder and its subfolders, by their extension.
+     *
+     * @param location A folder, or a single file.
+     * @param files The files found are added to this list, sorted by their path within each folder.
+     */
+    static void findSequenceFiles(File location, List<File> files) {
+        if (location.isDirectory()) {
+            File[] children = location.listFiles();
+            if (children == null) {
+                return;
+            }
+            Arrays.sort(children); //So the catalog is the same whatever order the file system lists the files in.
+            for (File child : children) {
+                if (!child.isHidden()) {
+                    findSequenceFiles(child, files);
+                }
+            }
+        } else if (location.isFile()) {
+            String name = location.getName().toLowerCase();
+            for (String extension : SEQUENCE_FILE_EXTENSIONS) {
+                if (name.endsWith(extension)) {
+                    files.add(location.getAbsoluteFile());
+                    return;
+                }
+            }
+        }
+    }
+
+    private static byte[] hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available.", e);
+        }
+        InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+        return digest.digest();
+    }
+
+    //Maps the index file and reads its header. Throws an IOException if it is not an index of the enzyme.
+    private void open() throws IOException {
+        MappedByteBuffer buffer;
+        RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "r");
+        try {
+            buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+        } finally {
+            randomAccessFile.close(); //The mapping stays valid after the file is closed.
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException(indexFile + " is not a parts catalog of this version.");
+        }
+        int offset = 8;
+        String enzymeName = readString(buffer, offset);
+        if (!enzymeName.equals(enzyme.dispName())) {
+            throw new IOException(indexFile + " was made with " + enzymeName + " instead of " + enzyme.dispName() + ".");
+        }
+        offset += 4 + buffer.getInt(offset);
+        int numFiles = buffer.getInt(offset);
+        offset += 4;
+        filesOffset = offset;
+        for (int i = 0; i < numFiles; i++) {
+            offset += 4 + buffer.getInt(offset) + 8 + 8 + HASH_SIZE;
+        }
+        this.numFiles = numFiles;
+        numParts = buffer.getInt(offset);
+        partsOffset = offset + 4;
+        namesOffset = partsOffset + numParts * PART_SIZE;
+        filePaths = new File[numFiles];
+        index = buffer;
+    }
+
+    //Reads back the files in the index, with their parts, for reusing them in an update.
+    private Map<String, IndexedFile> readFiles() {
+        Map<String, IndexedFile> files = new HashMap<String, IndexedFile>();
+        ByteBuffer buffer = index;
+        if (buffer == null) {
+            return files;
+        }
+        List<IndexedFile> byNumber = new ArrayList<IndexedFile>(numFiles);
+        int offset = filesOffset;
+        for (int i = 0; i < numFiles; i++) {
+            String path = readString(buffer, offset);
+            offset += 4 + buffer.getInt(offset);
+            long size = buffer.getLong(offset);
+            long lastModified = buffer.getLong(offset + 8);
+            byte[] hash = new byte[HASH_SIZE];
+            for (int j = 0; j < HASH_SIZE; j++) {
+                hash[j] = buffer.get(offset + 16 + j);
+            }
+            offset += 16 + HASH_SIZE;
+            IndexedFile file = new IndexedFile(path, size, lastModified, hash, new ArrayList<IndexedPart>(), false);
+            byNumber.add(file);
+            files.put(path, file);
+        }
+        for (int i = 0; i < numParts; i++) {
+            int entry = partsOffset + i * PART_SIZE;
+            IndexedFile file = byNumber.get(buffer.getInt(entry + 8));
+            file.parts.add(new IndexedPart(buffer.getInt(entry), buffer.getInt(entry + 4), buffer.getInt(entry + 12), buffer.getInt(entry + 16), readString(buffer, namesOffset + buffer.getInt(entry + 20))));
+        }
+        for (IndexedFile file : byNumber) {
+            Collections.sort(file.parts, new Comparator<IndexedPart>() {
+                public int compare(IndexedPart p1, IndexedPart p2) {
+                    return p1.record - p2.record;
+                }
+            });
+        }
+        return files;
+    }
+
+    private Part readPart(ByteBuffer buffer, int i) {
+        int entry = partsOffset + i * PART_SIZE;
+        int fileNumber = buffer.getInt(entry + 8);
+        File file;
+        synchronized (this) {
+            file = filePaths[fileNumber];
+            if (file == null) {
+                int offset = filesOffset;
+                for (int j = 0; j < fileNumber; j++) {
+                    offset += 4 + buffer.getInt(offset) + 16 + HASH_SIZE;
+                }
+                file = new File(readString(buffer, offset));
+                filePaths[fileNumber] = file;
+            }
+        }
+        int leftCode = buffer.getInt(entry);
+        int rightCode = buffer.getInt(entry + 4);
+        return new Part(file, buffer.getInt(entry + 12), readString(buffer, namesOffset + buffer.getInt(entry + 20)), decode(leftCode), decode(rightCode), buffer.getInt(entry + 16));
+    }
+
+    private static String decode(int code) {
+        return Overhang.decode(code, (code >>> Overhang.LENGTH_SHIFT) & Overhang.LENGTH_MASK);
+    }
+
+    //Writes the index to a temporary file first, so a failed update leaves the old index in place.
+    private void write(List<IndexedFile> files) throws IOException {
+        List<IndexedPart> parts = new ArrayList<IndexedPart>();
+        Map<IndexedPart, Integer> fileNumbers = new HashMap<IndexedPart, Integer>();
+        for (int i = 0; i < files.size(); i++) {
+            for (IndexedPart part : files.get(i).parts) {
+                parts.add(part);
+                fileNumbers.put(part, i);
+            }
+        }
+        //A stable sort, so parts with the same left overhang stay in the order of the files.
+        Collections.sort(parts, new Comparator<IndexedPart>() {
+            public int compare(IndexedPart p1, IndexedPart p2) {
+                return p1.leftCode < p2.leftCode ? -1 : (p1.leftCode == p2.leftCode ? 0 : 1);
+            }
+        });
+
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create the directory of " + indexFile);
+        }
+        File temporaryFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            writeString(out, enzyme.dispName());
+            out.writeInt(files.size());
+            for (IndexedFile file : files) {
+                writeString(out, file.path);
+                out.writeLong(file.size);
+                out.writeLong(file.lastModified);
+                out.write(file.hash);
+            }
+            out.writeInt(parts.size());
+            Map<String, Integer> nameOffsets = new LinkedHashMap<String, Integer>();
+            int namesLength = 0;
+            for (IndexedPart part : parts) {
+                Integer nameOffset = nameOffsets.get(part.name);
+                if (nameOffset == null) {
+                    nameOffset = namesLength;
+                    nameOffsets.put(part.name, nameOffset);
+                    namesLength += 4 + toBytes(part.name).length;
+                }
+                out.writeInt(part.leftCode);
+                out.writeInt(part.rightCode);
+                out.writeInt(fileNumbers.get(part));
+                out.writeInt(part.record);
+                out.writeInt(part.length);
+                out.writeInt(nameOffset);
+            }
+            for (String name : nameOffsets.keySet()) {
+                writeString(out, name);
+            }
+        } catch (IOException e) {
+            out.close();
+            temporaryFile.delete();
+            throw e;
+        }
+        out.close();
+        //The old mapping is kept until the new index is in place, so a failed rename leaves the catalog as it was.
+        if (!temporaryFile.renameTo(indexFile) && !(indexFile.delete() && temporaryFile.renameTo(indexFile))) {
+            temporaryFile.delete();
+            throw new IOException("Cannot replace " + indexFile);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = toBytes(string);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer, int offset) {
+        byte[] bytes = new byte[buffer.getInt(offset)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(offset + 4 + i);
+        }
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] toBytes(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A file as stored in the index.
+     */
+    private static final class IndexedFile {
+        IndexedFile(String path, long size, long lastModified, byte[] hash, List<IndexedPart> parts, boolean read) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.parts = parts;
+            this.read = read;
+        }
+
+        final String path;
+        final long size;
+        final long lastModified;
+        final byte[] hash;
+        final List<IndexedPart> parts;
+        final boolean read; //Whether the file was read in this update.
+    }
+
+    /**
+     * A part as stored in the index.
+     */
+    private static final class IndexedPart {
+        IndexedPart(int leftCode, int rightCode, int record, int length, String name) {
+            this.leftCode = leftCode;
+            this.rightCode = rightCode;
+            this.record = record;
+            this.length = length;
+            this.name = name;
+        }
+
+        final int leftCode;
+        final int rightCode;
+        final int record;
+        final int length;
+        final String name;
+    }
+
+    /**
+     * The module type of the fragments reaching from the last GreenGate overhang back to the first one.
+     */
+    public static final String DESTINATION = "destination";
+
+    //The GreenGate overhangs in the order of the modules, and the module between each overhang and the next one.
+    private static final List<String> MODULE_OVERHANGS = Arrays.asList("ACCT", "AACA", "GCAG", "TGCC", "ACTA", "TTCG", "CAGA");
+    private static final String MODULE_NAMES = "ABCDEF";
+    private static final String[] SEQUENCE_FILE_EXTENSIONS = {".gb", ".gbk", ".genbank", ".fasta", ".fa", ".fas", ".fna"};
+
+    private static final int MAGIC = 0x47475043; //"GGPC"
+    private static final int VERSION = 1;
+    private static final int HASH_SIZE = 20;
+    private static final int PART_SIZE = 24;
+
+    private final File indexFile;
+    private final Enzyme enzyme;
+    private volatile MappedByteBuffer index;
+    private int numFiles;
+    private int numParts;
+    private int filesOffset;
+    private int partsOffset;
+    private int namesOffset;
+    private File[] filePaths; //The paths of the files, read from the index when first needed.
+}
@@ -0,0 +1,145 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Checks that a set of parts can be assembled before anything is done with the documents. Only the sequences are
+ * +used: the sites of the enzyme are found and the fragments and their overhangs worked out from the geometry of the
+ * +enzyme, which takes milliseconds even for large part sets.
+ * A set passes if every part has exactly two sites and gives exactly one fragment with two overhangs and no site, no
+ * +two fragments compete for the same overhang, and the fragments close into a single circle that uses all of them.
+ * The overhangs are also checked against the OverhangMatrix of their length for palindromes and for pairs that are
+ * +the reverse complement of each other, which make the orientation of a part ambiguous. Near matches are common in
+ * +working part sets, so they are left to the library check.
+ * Each part is only scanned for sites once, and with a digest cache the digest is the same one the assembly uses
+ * +afterwards.
+ */
+public class PreflightCheck {
+
+    public PreflightCheck(Enzyme enzyme) {
+        this(enzyme, null, null);
+    }
+
+    /**
+     * @param enzyme The enzyme used for the GreenGate reaction.
+     * @param digestCache The cache the digests are taken from and stored in, or null to digest every part anew.
+     * @param metrics The metrics the cache hits and misses are counted for. Can be null.
+     */
+    public PreflightCheck(Enzyme enzyme, DigestCache digestCache, AssemblyMetrics metrics) {
+        this.engine = new DigestEngine(enzyme);
+        this.digestCache = digestCache;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Checks a set of parts.
+     *
+     * @param records The parts, the destination vector first. Their features are not used.
+     * @return The problems found, one message each. Empty if the parts can be assembled.
+     */
+    public List<String> findProblems(List<SequenceRecord> records) {
+        List<String> names = new ArrayList<String>(records.size());
+        List<DigestCache.Digest> digests = new ArrayList<DigestCache.Digest>(records.size());
+        for (SequenceRecord record : records) {
+            names.add(record.getName());
+            digests.add(digest(record));
+        }
+        return findProblems(names, digests);
+    }
+
+    /**
+     * Checks a set of parts that have already been digested, so the digests the assembly works on can be checked
+     * +without digesting the parts again.
+     *
+     * @param names The names of the parts, the destination vector first.
+     * @param digests The digests of the parts, in the same order.
+     * @return The problems found, one message each. Empty if the parts can be assembled.
+     */
+    public List<String> findProblems(List<String> names, List<DigestCache.Digest> digests) {
+        List<String> problems = new ArrayList<String>();
+        String enzymeName = engine.getEnzyme().dispName();
+        AssemblyPlanner<String> planner = new AssemblyPlanner<String>();
+        Map<Overhang, String> leftEnds = new HashMap<Overhang, String>();
+        Map<Overhang, String> rightEnds = new HashMap<Overhang, String>();
+        boolean first = true;
+        for (int i = 0; i < digests.size(); i++) {
+            String name = names.get(i);
+            DigestCache.Digest digest = digests.get(i);
+            List<Site> sites = digest.getSites();
+            if (sites.size() != 2) {
+                StringBuilder problem = new StringBuilder(name + " has " + sites.size() + " " + enzymeName + " sites instead of 2");
+                for (int j = 0; j < sites.size(); j++) {
+                    problem.append(j == 0 ? ", at " : ", ").append(sites.get(j).getPosition() + 1);
+                }
+                problems.add(problem.append(".").toString());
+            }
+
+            List<Fragment> selected = new ArrayList<Fragment>(1);
+            for (Fragment fragment : digest.getFragments()) {
+                if (fragment.isInsert()) {
+                    selected.add(fragment);
+                }
+            }
+            if (selected.size() != 1) {
+                problems.add(name + " gives " + selected.size() + " fragments with two overhangs and no " + enzymeName + " site instead of 1.");
+            }
+            for (Fragment fragment : selected) {
+                String other = leftEnds.put(fragment.getLeftOverhang(), name);
+                if (other != null) {
+                    problems.add(name + " and " + other + " both start with the " + fragment.getLeftOverhang().getSequence() + " overhang.");
+                }
+                other = rightEnds.put(fragment.getRightOverhang(), name);
+                if (other != null) {
+                    problems.add(name + " and " + other + " both end with the " + fragment.getRightOverhang().getSequence() + " overhang.");
+                }
+                if (first) {
+                    planner.setStart(name, fragment.getLeftOverhang(), fragment.getRightOverhang());
+                    first = false;
+                } else {
+                    planner.add(name, fragment.getLeftOverhang(), fragment.getRightOverhang());
+                }
+            }
+        }
+        if (first) {
+            problems.add("None of the parts gives a fragment with two overhangs.");
+            return problems;
+        }
+
+        OverhangMatrix matrix = null;
+        int overhangLength = engine.getEnzyme().overhang();
+        if (overhangLength >= 1 && overhangLength <= OverhangMatrix.MAX_TABLE_LENGTH) {
+            matrix = OverhangMatrix.forLength(overhangLength);
+            problems.addAll(matrix.findCrossTalk(leftEnds.keySet(), 1));
+        }
+
+        AssemblyPlan<String> plan = planner.plan();
+        if (!plan.isCircular()) {
+            OverhangIndex.Entry<String> last = plan.getParts().get(plan.getParts().size() - 1);
+            StringBuilder problem = new StringBuilder("The parts do not close into a circle: nothing joins the " + last.getRightOverhang().getSequence() + " overhang of " + last.getItem() + ".");
+            Overhang closest = matrix == null ? null : matrix.findClosest(last.getRightOverhang(), leftEnds.keySet());
+            if (closest != null) {
+                problem.append(" The closest is the ").append(closest.getSequence()).append(" overhang of ").append(leftEnds.get(closest)).append(".");
+            }
+            problems.add(problem.toString());
+        }
+        for (String unused : plan.getUnused()) {
+            problems.add(unused + " does not fit into the construct.");
+        }
+        return problems;
+    }
+
+    private DigestCache.Digest digest(SequenceRecord record) {
+        if (digestCache != null) {
+            return digestCache.getDigest(engine, record.getSequence(), record.isCircular(), metrics);
+        }
+        List<Site> sites = engine.findSites(record.getSequence(), record.isCircular());
+        return new DigestCache.Digest(sites, engine.digest(record.getSequence(), record.isCircular(), sites));
+    }
+
+    private final DigestEngine engine;
+    private final DigestCache digestCache;
+    private final AssemblyMetrics metrics;
+}
@@ -0,0 +1,180 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runs the assembly on generated part sets of growing size, checking every result and recording the time and the
+ * +peak heap of each size, so wrong constructs and sizes where the assembly suddenly slows down show up early. Run it
+ * +from the command line:
+ * java de.uni_heidelberg.cos.aglohmann.greengateplugin.ScalingHarness [--max PARTS] [--contamination SHARE] [--origin-sites SHARE]
+ *
+ * Every set is assembled like a batch: each construct is checked with the PreflightCheck and then assembled with the
+ * +FragmentAssembler. A construct without contaminated modules has to pass the check and come out as its expected
+ * +sequence (compared with the ConstructVerifier, so the rotation does not matter), and one with contaminated modules
+ * +has to be stopped. Anything else is a failure. A size whose time per part is more than CLIFF_FACTOR times that of
+ * +the size before is marked as a scaling cliff, if both took long enough to be timed reliably. The exit code is 1 if
+ * +there were failures.
+ */
+public class ScalingHarness {
+
+    public static void main(String[] args) {
+        int maxParts = 10000;
+        double contamination = 0.02;
+        double originSites = 0.1;
+        try {
+            for (int i = 0; i < args.length; i++) {
+                if (args[i].equals("--max")) {
+                    maxParts = Integer.parseInt(args[++i]);
+                } else if (args[i].equals("--contamination")) {
+                    contamination = Double.parseDouble(args[++i]);
+                } else if (args[i].equals("--origin-sites")) {
+                    originSites = Double.parseDouble(args[++i]);
+                } else {
+                    System.err.println("Unknown argument " + args[i]);
+                    System.exit(2);
+                }
+            }
+        } catch (RuntimeException e) {
+            System.err.println("Usage: ScalingHarness [--max PARTS] [--contamination SHARE] [--origin-sites SHARE]");
+            System.exit(2);
+        }
+        ScalingHarness harness = new ScalingHarness(contamination, originSites);
+        harness.run(WARMUP_PARTS); //So the first sizes are not measured while the JIT compiler is still at work.
+        System.out.println(String.format(Locale.US, "%8s %10s %12s %12s %14s %9s", "parts", "constructs", "time ms", "us/part", "peak heap MB", "failures"));
+        double previousPerPart = 0;
+        double previousMillis = 0;
+        int failures = 0;
+        for (int size : SIZES) {
+            if (size > maxParts) {
+                break;
+            }
+            Result result = harness.run(size);
+            double perPart = result.millis * 1000 / size;
+            boolean cliff = previousPerPart > 0 && perPart > CLIFF_FACTOR * previousPerPart && previousMillis > MIN_CLIFF_MILLIS;
+            System.out.println(String.format(Locale.US, "%8d %10d %12.1f %12.1f %14.1f %9d%s", size, result.constructs, result.millis, perPart,
+                    result.peakHeap / 1e6, result.failures.size(), cliff ? "   scaling cliff" : ""));
+            for (String failure : result.failures) {
+                System.out.println("    " + failure);
+            }
+            failures += result.failures.size();
+            previousPerPart = perPart;
+            previousMillis = result.millis;
+        }
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * @param contamination The share of the modules with an internal site.
+     * @param originSites The share of the modules with a site spanning the origin.
+     */
+    public ScalingHarness(double contamination, double originSites) {
+        this.contamination = contamination;
+        this.originSites = originSites;
+    }
+
+    /**
+     * Generates and assembles a part set.
+     *
+     * @param numParts The number of entry modules. Destination vectors are added for every MODULES_PER_CONSTRUCT of
+     *                 +them.
+     * @return The time, the peak heap and the failures of the run.
+     */
+    public Result run(int numParts) {
+        Enzyme enzyme = EnzymeRegistry.getCheckedInstance().getDefault();
+        PartSetGenerator generator = new PartSetGenerator(enzyme, numParts);
+        generator.setContamination(contamination);
+        generator.setOriginSites(originSites);
+        List<PartSetGenerator.Construct> constructs = generator.generateSet(numParts, Math.min(MODULES_PER_CONSTRUCT, generator.getMaxModules()), PART_LENGTH);
+
+        System.gc();
+        List<MemoryPoolMXBean> heapPools = new ArrayList<MemoryPoolMXBean>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.isValid()) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        long start = System.nanoTime();
+        DigestCache digestCache = new DigestCache(DIGEST_CACHE_BASES, null);
+        FragmentAssembler assembler = new FragmentAssembler(enzyme, digestCache);
+        PreflightCheck preflight = new PreflightCheck(enzyme, digestCache, assembler.getMetrics());
+        List<String> failures = new ArrayList<String>();
+        for (PartSetGenerator.Construct construct : constructs) {
+            String failure = check(construct, assembler, preflight);
+            if (failure != null) {
+                failures.add(construct.getName() + ": " + failure);
+            }
+        }
+        double millis = (System.nanoTime() - start) / 1e6;
+        long peakHeap = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peakHeap += pool.getPeakUsage().getUsed();
+        }
+        return new Result(constructs.size(), millis, peakHeap, failures);
+    }
+
+    //Assembles a construct, returning what went wrong or null if it behaved as expected.
+    private String check(PartSetGenerator.Construct construct, FragmentAssembler assembler, PreflightCheck preflight) {
+        List<String> problems = preflight.findProblems(construct.getParts());
+        if (!construct.isAssemblable()) {
+            return problems.isEmpty() ? "the pre-flight check missed the internal sites of " + construct.getContaminated() : null;
+        }
+        if (!problems.isEmpty()) {
+            return "the pre-flight check failed: " + problems.get(0);
+        }
+        try {
+            SequenceRecord result = assembler.assemble(construct.getName(), construct.getDestination(), construct.getModules());
+            ConstructVerifier.Comparison comparison = new ConstructVerifier(result.getSequence(), true).compare(construct.getExpectedSequence());
+            return comparison.isIdentical() ? null : "the construct " + comparison;
+        } catch (AssemblyException e) {
+            return "the assembly failed: " + e.getMessage();
+        }
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    public static final class Result {
+        Result(int constructs, double millis, long peakHeap, List<String> failures) {
+            this.constructs = constructs;
+            this.millis = millis;
+            this.peakHeap = peakHeap;
+            this.failures = failures;
+        }
+
+        public int getConstructs() {return constructs;}
+
+        /**
+         * @return The time of the assembly in milliseconds, without generating the parts.
+         */
+        public double getMillis() {return millis;}
+
+        /**
+         * @return The peak heap use during the assembly in bytes, including the generated parts.
+         */
+        public long getPeakHeap() {return peakHeap;}
+
+        public List<String> getFailures() {return failures;}
+
+        private final int constructs;
+        private final double millis;
+        private final long peakHeap;
+        private final List<String> failures;
+    }
+
+    private static final int[] SIZES = {2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000, 10000};
+    private static final int MODULES_PER_CONSTRUCT = 10;
+    private static final int PART_LENGTH = 1000;
+    private static final long DIGEST_CACHE_BASES = 50000000;
+    private static final double CLIFF_FACTOR = 3;
+    private static final double MIN_CLIFF_MILLIS = 50;
+    private static final int WARMUP_PARTS = 200;
+
+    private final double contamination;
+    private final double originSites;
+}
@@ -1,422 +1,469 @@
 package de.uni_heidelberg.cos.aglohmann.greengateplugin;
 
-import com.biomatters.geneious.publicapi.components.Dialogs;
 import com.biomatters.geneious.publicapi.documents.AnnotatedPluginDocument;
 import com.biomatters.geneious.publicapi.documents.DocumentUtilities;
+import com.biomatters.geneious.publicapi.documents.PluginDocument;
 import com.biomatters.geneious.publicapi.documents.sequence.NucleotideSequenceDocument;
 import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotation;
 import com.biomatters.geneious.publicapi.documents.sequence.SequenceAnnotationInterval;
-import com.biomatters.geneious.publicapi.documents.sequence.DefaultSequenceListDocument;
 import com.biomatters.geneious.publicapi.implementations.sequence.DefaultNucleotideSequence;
 import com.biomatters.geneious.publicapi.plugin.DocumentOperationException;
-import com.biomatters.geneious.publicapi.plugin.DocumentOperation;
-import com.biomatters.geneious.publicapi.plugin.PluginUtilities;
-import com.biomatters.geneious.publicapi.plugin.Options;
-import com.biomatters.geneious.publicapi.utilities.SequenceUtilities;
-import com.biomatters.geneious.publicapi.utilities.ThreadUtilities;
-
 import jebl.util.ProgressListener;
 
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Created by Matyas Medzihradszky on 29/01/15.
  */
 public class SequenceAssembler {
 
+    /**
+     * @param executor The executor the digestion of the input documents and the assembly of library constructs is
+     *                 +spread over. It is not shut down by the assembler.
+     * @param digestCache The cache of digestion results, shared between runs.
+     */
+    public SequenceAssembler(ExecutorService executor, DigestCache digestCache) {
+        this.executor = executor;
+        this.digestCache = digestCache;
+    }
+
+    /**
+     * @return The metrics of the last (or current) run, or null before the first run.
+     */
+    public AssemblyMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * This will be the final function to call to actually perform the GreenGate cloning, once the documents have been
      * selected and set up and options determined.
-     * At this moment it is more a plan for the logic of how the whole thing will work.
+     * The digestion, planning and ligation are done by the ConstructAssembler, the same as for the command line tools.
      *
      * @param enzyme The enzyme used for the GreenGate reaction.
      * @param documents All the vectors that we use in the reaction.
+     * @param progress Receives the progress of the cloning. If it is cancelled the cloning stops as soon as possible.
      * @return The completed construct. (A list, but it should only have on element. A list is used as that is the final return type needed by the Document Operation).
+     *         +Empty if the cloning was cancelled.
      * @throws DocumentOperationException If any of the conversions or document operations used fail for some reason.
      */
-    public List<AnnotatedPluginDocument> performCloning(Enzyme enzyme, List<AnnotatedPluginDocument> documents) throws DocumentOperationException {
+    public List<AnnotatedPluginDocument> performCloning(Enzyme enzyme, List<AnnotatedPluginDocument> documents, ProgressListener progress) throws DocumentOperationException {
+        metrics = new AssemblyMetrics();
+        ConstructAssembler<NucleotideSequenceDocument, SequenceAnnotation> assembler = createAssembler(enzyme);
         List<AnnotatedPluginDocument> results = new LinkedList<AnnotatedPluginDocument>() {};
-        List<AnnotatedPluginDocument> workingDocuments = new LinkedList<AnnotatedPluginDocument>();
 
-        //Cut all the inserts.
-        for (AnnotatedPluginDocument doc : documents) {
-            workingDocuments.addAll(selectNeededSequence(enzyme, cutSequence(enzyme, doc)));
+        //Cut all the inserts, and check the digests before anything is put together.
+        List<DigestedPart> digested = digestAll(assembler, documents, progress, DIGEST_PROGRESS);
+        if (digested == null) {
+            return results;
         }
+        preflight(enzyme, digested);
+        List<List<ConstructAssembler.Placed<NucleotideSequenceDocument>>> digests = selectAll(assembler, digested);
 
-        //We pick the first resulting fragment as the one to start the reaction from.
-        //This we will wish to change for error handling later on: ie. Which part works and which does not.
-        AnnotatedPluginDocument destinationFragment = workingDocuments.remove(0);
-
-        //TODO: How do we avoid an endless ligation?
-        //Now I implemented the removal of each used fragment. Probably not good in all cases.
-        AnnotatedPluginDocument match = findMatchingDocument(destinationFragment, workingDocuments);
-        while (!((NucleotideSequenceDocument)destinationFragment.getDocument()).isCircular() && match != null) { //The second part will be null if there is no match, or the insert list is already empty.
-            destinationFragment = ligateSequences(destinationFragment, match);
-            workingDocuments.remove(match);
-            match = findMatchingDocument(destinationFragment, workingDocuments);
+        //The planner works out the whole order of the fragments from their overhangs, starting from the first fragment
+        //+of the first document, and the construct is put together in a single step.
+        progress.setMessage("Reading overhangs");
+        AssemblyPlan<ConstructAssembler.Placed<NucleotideSequenceDocument>> plan = assembler.plan(digests);
+        progress.setMessage("Ligating " + plan.getParts().size() + " fragments");
+        if (progress.setProgress(DIGEST_PROGRESS + (1 - DIGEST_PROGRESS) / 2)) {
+            return results;
         }
-        if (!((NucleotideSequenceDocument)destinationFragment.getDocument()).isCircular()) {
-            Dialogs.showMessageDialog("Could not circularise the plasmid. The resulting linear fragment is presented.");
-            //TODO: Pop up an option to choose what to do.
+        DefaultNucleotideSequence construct = createSequence(assembler.ligate(plan));
+        if (!plan.isCircular()) {
+            //The linear fragment is presented, with the reason in its description.
+            metrics.addWarning("Could not circularise the plasmid: " + assembler.explainOpenEnd(plan) + " The resulting linear fragment is presented.");
         }
-        results.add(cleanupAnnotations(destinationFragment));
+        metrics.finish();
+        progress.setProgress(1.0);
+        construct.setDescription(metrics.getSummary().replace("\n", "; "));
+        results.add(DocumentUtilities.createAnnotatedPluginDocument(construct));
         return results;
     }
 
     /**
-     * Should convert a simple sequence document to a DefaultNucleotideSequence if possible. It will fail (returning
-     * null) if the provided document is not a nucleotide sequence document of some kind.
-     * (ie. Not an instanceof NucleotideSequenceDocument)
+     * Checks from the digests alone that the documents can be assembled, so a design that cannot work fails before
+     * +the construct is put together. The digests are those of digestAll(), so nothing is digested again.
      *
-     * @param document An AnnotatedPluginDocument to convert.
-     * @return Returns a DefaultNucleotideSequence if successful, or null if not.
-     * @throws DocumentOperationException If it cannot get the wrapped document for some reason, this is thrown.
+     * @throws DocumentOperationException If the parts cannot be assembled. The message lists all the problems found.
      */
-    private DefaultNucleotideSequence convertDocument(AnnotatedPluginDocument document) throws DocumentOperationException {
-        if(document.getDocument() instanceof DefaultNucleotideSequence) {
-            return (DefaultNucleotideSequence)document.getDocument();
-        } else if (document.getDocument() instanceof NucleotideSequenceDocument) {
-            NucleotideSequenceDocument seqDoc = (NucleotideSequenceDocument)document.getDocument();
-            String seqString = seqDoc.getSequenceString();
-            List<SequenceAnnotation> annotations = seqDoc.getSequenceAnnotations();
-
-            DefaultNucleotideSequence nucSeq = new DefaultNucleotideSequence(document.getName(), seqString);
-            nucSeq.setAnnotations(annotations);
-            nucSeq.setCircular(seqDoc.isCircular());
-            return nucSeq;
-        } else {
-            return null; //This is only returned if the sequence is not a nucleotide sequence. This on the other hand should be tested way before this step.
+    private void preflight(Enzyme enzyme, List<DigestedPart> digested) throws DocumentOperationException {
+        long start = System.nanoTime();
+        List<String> names = new ArrayList<String>(digested.size());
+        List<DigestCache.Digest> digests = new ArrayList<DigestCache.Digest>(digested.size());
+        for (DigestedPart part : digested) {
+            names.add(part.name);
+            digests.add(part.digest);
+        }
+        List<String> problems = new PreflightCheck(enzyme).findProblems(names, digests);
+        metrics.addTime(AssemblyMetrics.Stage.PREFLIGHT, start);
+        if (!problems.isEmpty()) {
+            StringBuilder message = new StringBuilder("The parts cannot be assembled:");
+            for (String problem : problems) {
+                message.append("\n").append(problem);
+            }
+            throw new DocumentOperationException(message.toString());
         }
     }
 
     /**
-     * Performs a theoretical digestion on a given nucleotide sequence with an enzyme.
+     * Builds a combinatorial library. The parts are sorted into slots by the overhangs of their fragments, so parts
+     * +that can stand in for each other end up in the same pool, and a construct is assembled for every combination
+     * +that takes one part from each pool. Each part is only digested once, and the constructs are assembled in
+     * +parallel by one ConstructAssembler, so combinations starting with the same parts share their partial assemblies.
+     * The slot of the first document is used as the destination vector of every construct.
      *
-     * @param enzyme The enzyme used for the digestion.
-     * @param document The document containing a nucleotide sequence.
-     * @return A list of documents that result from the digestion.
-     * @throws DocumentOperationException
+     * @param enzyme The enzyme used for the GreenGate reaction.
+     * @param documents All the vectors that we use in the reaction.
+     * @param progress Receives the progress of the cloning. If it is cancelled, the constructs finished so far are
+     *                 +returned.
+     * @return The circular constructs, in the order of the combinations.
+     * @throws DocumentOperationException If digesting or assembling any of the parts fails.
      */
-    private List<AnnotatedPluginDocument> cutSequence(Enzyme enzyme, AnnotatedPluginDocument document) throws DocumentOperationException {
-        //Retrieve the inner nucleotide sequence document and return null if this fails.
-        DefaultNucleotideSequence nucleotideSequence;
-        nucleotideSequence = convertDocument(document);
-
-        //Clear any restriction site annotations already in the sequence to make sure it is cut in the right places.
-        //The rest of the sequence annotations are not affected.
-        List<SequenceAnnotation> annotations = nucleotideSequence.getSequenceAnnotations();
-        List<SequenceAnnotation> toRemove = SequenceUtilities.getAnnotationsOfType(annotations, SequenceAnnotation.TYPE_RESTRICTION_SITE);
-        annotations.removeAll(toRemove);
-
-        //Find and enter the needed restriction site annotations, based on the selected enzyme.
-        //This should also be possible to do with a built in DocumentOperation, but I am not sure how to set the needed
-        //+options for it.
-        String sequence = nucleotideSequence.getSequenceString();
-        sequence.toUpperCase(); //Change to upper case to make sure matching works well.
-        int index = 0;
-        do {
-            index = sequence.indexOf(enzyme.recognitionSite(), index);
-            if (index > 0) {
-                SequenceAnnotation anno = new SequenceAnnotation(enzyme.dispName(), SequenceAnnotation.TYPE_RESTRICTION_SITE);
-                anno.addQualifier("Recognition pattern", enzyme.recognitionPattern());
-                anno.addInterval(index + 1, index + enzyme.recognitionSite().length(), SequenceAnnotationInterval.Direction.leftToRight);
-                annotations.add(anno);
-                index += 1;
-            }
-        } while (index > 0);
-        index = 0; //Reset counter to next pass... looking for backward recognition sites. Needed because GreenGate
-                   //+enzyme recognition sites are not palindromic.
-        do {
-            index = sequence.indexOf(enzyme.revRecSite(), index);
-            if (index > 0) {
-                SequenceAnnotation anno = new SequenceAnnotation(enzyme.dispName(), SequenceAnnotation.TYPE_RESTRICTION_SITE);
-                anno.addQualifier("Recognition pattern", enzyme.recognitionPattern());
-                anno.addInterval(index + 1, index + enzyme.recognitionSite().length(), SequenceAnnotationInterval.Direction.rightToLeft);
-                annotations.add(anno);
-                index += 1;
-            }
-        } while (index > 0);
-
-        nucleotideSequence.setAnnotations(annotations); //Add the new annotations to the nucleotide sequence.
-        final AnnotatedPluginDocument digestDocument = DocumentUtilities.createAnnotatedPluginDocument(nucleotideSequence);
-        //Perform digestion
-        //Needed to get around AWT thread problems
-        final DocumentOperation digest = PluginUtilities.getDocumentOperation("com.biomatters.plugins.restrictionAnalysis.DigestOperation");
-        final AtomicReference<Options> options = new AtomicReference<Options>();
-        ThreadUtilities.invokeNowOrWait(new Runnable() {
-            public void run() {
-                try {
-                    options.set(digest.getOptions(digestDocument));
-                } catch (DocumentOperationException e) {
-                    e.printStackTrace();
+    public List<AnnotatedPluginDocument> performLibraryCloning(Enzyme enzyme, List<AnnotatedPluginDocument> documents, ProgressListener progress) throws DocumentOperationException {
+        metrics = new AssemblyMetrics();
+        final ConstructAssembler<NucleotideSequenceDocument, SequenceAnnotation> assembler = createAssembler(enzyme);
+
+        //Digest each part once and sort the fragments into pools by their overhangs.
+        List<DigestedPart> digested = digestAll(assembler, documents, progress, LIBRARY_DIGEST_PROGRESS);
+        if (digested == null) {
+            return new ArrayList<AnnotatedPluginDocument>();
+        }
+        List<List<ConstructAssembler.Placed<NucleotideSequenceDocument>>> digests = selectAll(assembler, digested);
+        long start = System.nanoTime();
+        final Map<List<Overhang>, List<OverhangIndex.Entry<ConstructAssembler.Placed<NucleotideSequenceDocument>>>> pools = new LinkedHashMap<List<Overhang>, List<OverhangIndex.Entry<ConstructAssembler.Placed<NucleotideSequenceDocument>>>>();
+        for (List<ConstructAssembler.Placed<NucleotideSequenceDocument>> fragments : digests) {
+            for (ConstructAssembler.Placed<NucleotideSequenceDocument> fragment : fragments) {
+                Overhang leftEnd = fragment.getFragment().getLeftOverhang();
+                Overhang rightEnd = fragment.getFragment().getRightOverhang();
+                List<Overhang> slot = Arrays.asList(leftEnd, rightEnd);
+                if (!pools.containsKey(slot)) {
+                    pools.put(slot, new ArrayList<OverhangIndex.Entry<ConstructAssembler.Placed<NucleotideSequenceDocument>>>());
                 }
+                pools.get(slot).add(new OverhangIndex.Entry<ConstructAssembler.Placed<NucleotideSequenceDocument>>(fragment, leftEnd, rightEnd));
             }
-        });
-        //Dialogs.showMessageDialog(options.get().getDescriptionAndState()); //For debugging and testing purposes.
-        return digest.performOperation(ProgressListener.EMPTY, options.get(), digestDocument); //returns a DefaultSequenceListDocument
-
-    }
-
-    /**
-     * Select the needed sequence fragment based on the enzyme used and whether the fragments are from the destination
-     * vector or a simple insert vector.
-     */
-    private List<AnnotatedPluginDocument> selectNeededSequence(Enzyme enzyme, List<AnnotatedPluginDocument> documents) throws DocumentOperationException {
-        //Set up restriction site annotation to search for
-        SequenceAnnotation recognitionSite = new SequenceAnnotation(enzyme.dispName(), SequenceAnnotation.TYPE_RESTRICTION_SITE);
-
-        //Where we gather the sequences to check. Needed because the supplied PluginDocuments might be sequence lists.
-        List<NucleotideSequenceDocument> nucleotideSequences = new LinkedList<NucleotideSequenceDocument>();
-
-        for (AnnotatedPluginDocument doc : documents) {
-            if (doc.getDocument() instanceof com.biomatters.geneious.publicapi.documents.sequence.DefaultSequenceListDocument) {
-                DefaultSequenceListDocument docList = (DefaultSequenceListDocument)doc.getDocument();
-                nucleotideSequences.addAll(docList.getNucleotideSequences());
-            } else if (doc.getDocument() instanceof com.biomatters.geneious.publicapi.documents.sequence.NucleotideSequenceDocument) {
-                nucleotideSequences.add((NucleotideSequenceDocument)doc.getDocument());
-            } else {
-                return null; //Do this if we cannot correctly cast the received sequences. Should not happen.
+        }
+        metrics.addTime(AssemblyMetrics.Stage.OVERHANGS, start);
+        if (pools.isEmpty()) {
+            throw new DocumentOperationException("None of the parts could be digested into a fragment with two overhangs.");
+        }
+        final List<List<OverhangIndex.Entry<ConstructAssembler.Placed<NucleotideSequenceDocument>>>> slots = new ArrayList<List<OverhangIndex.Entry<ConstructAssembler.Placed<NucleotideSequenceDocument>>>>(pools.values());
+        long numConstructs = 1;
+        for (List<OverhangIndex.Entry<ConstructAssembler.Placed<NucleotideSequenceDocument>>> pool : slots) {
+            numConstructs *= pool.size();
+        }
+        if (numConstructs > MAX_LIBRARY_SIZE) {
+            throw new DocumentOperationException("The library would contain " + numConstructs + " constructs. At most " + MAX_LIBRARY_SIZE + " can be assembled at once.");
+        }
+        //Overhangs of different slots that can be ligated to each other give wrong products in the real reaction. The
+        //+library is still built, and the problems are reported with the metrics in the description of each construct.
+        if (enzyme.overhang() >= 1 && enzyme.overhang() <= OverhangMatrix.MAX_TABLE_LENGTH) {
+            List<Overhang> slotEnds = new ArrayList<Overhang>();
+            for (List<Overhang> slot : pools.keySet()) {
+                slotEnds.addAll(slot); //Both the left and the right end of every slot.
+            }
+            for (String problem : OverhangMatrix.forLength(enzyme.overhang()).findCrossTalk(slotEnds, OverhangMatrix.MIN_DISTANCE)) {
+                metrics.addWarning("May be ligated by mistake: " + problem);
             }
         }
 
-        //Go through all the sequences looking for enzyme recognition sites.
-        //Remove those that have the sites. We need those that do not contain them.
-        for(Iterator<NucleotideSequenceDocument> iterator = nucleotideSequences.iterator(); iterator.hasNext();) {
-            NucleotideSequenceDocument document = iterator.next();
-            List<SequenceAnnotation> annotations = document.getSequenceAnnotations();
-            if (containsAnnotation(annotations, recognitionSite)) {
-                iterator.remove();
-            }
+        //Assemble every combination. The combinations are numbered, and each number is decoded into one part per slot.
+        List<Future<DefaultNucleotideSequence>> constructs = new ArrayList<Future<DefaultNucleotideSequence>>((int)numConstructs);
+        for (int i = 0; i < numConstructs; i++) {
+            final int combination = i;
+            constructs.add(executor.submit(new Callable<DefaultNucleotideSequence>() {
+                public DefaultNucleotideSequence call() {
+                    return assembleCombination(assembler, slots, combination);
+                }
+            }));
         }
-        List<AnnotatedPluginDocument> resultingDocuments = DocumentUtilities.createAnnotatedPluginDocuments(nucleotideSequences); //Convert the nucleotide sequences back to AnnotatedPluginDocuments.
-        return resultingDocuments; //Should in most cases be a single document, but just in case.
-    }
 
-    /**
-     * Checks if a sequence contains an annotation with the same type and name as a reference annotation.
-     * Used to check if a sequence contains a (annotated) restriction site, for example, anywhere on the sequence.
-     *
-     * @param annotations The list of SequenceAnnotations to search through.
-     * @param annotationToFind The reference annotation.
-     * @return True if found, false otherwise. Does not check how many have been found, just if it is there or not.
-     */
-    private boolean containsAnnotation(List<SequenceAnnotation> annotations, SequenceAnnotation annotationToFind) {
-        annotations = SequenceUtilities.getAnnotationsOfType(annotations, annotationToFind.getType());
-        if (annotations.isEmpty()) {
-            return false;
-        } else {
-            for (SequenceAnnotation annotation : annotations) {
-                if (annotation.getName().equalsIgnoreCase(annotationToFind.getName())) {
-                    return true;
+        //The constructs are collected in order. If the run is cancelled, the remaining ones are stopped and those
+        //+already finished are kept.
+        List<DefaultNucleotideSequence> results = new ArrayList<DefaultNucleotideSequence>();
+        boolean cancelled = false;
+        try {
+            for (int i = 0; i < constructs.size(); i++) {
+                progress.setMessage("Assembling construct " + (i + 1) + " of " + numConstructs);
+                progress.setProgress(LIBRARY_DIGEST_PROGRESS + (1 - LIBRARY_DIGEST_PROGRESS) * i / numConstructs);
+                if (!waitFor(constructs.get(i), progress)) {
+                    cancelled = true;
+                    cancelAll(constructs);
+                    for (Future<DefaultNucleotideSequence> construct : constructs.subList(i, constructs.size())) {
+                        try {
+                            if (construct.isDone() && !construct.isCancelled() && construct.get() != null) {
+                                results.add(construct.get());
+                            }
+                        } catch (ExecutionException e) {
+                            //Failures after the cancellation are not reported.
+                        }
+                    }
+                    break;
+                }
+                if (constructs.get(i).get() != null) {
+                    results.add(constructs.get(i).get());
                 }
             }
-            return false;
+        } catch (InterruptedException e) {
+            cancelAll(constructs);
+            throw new DocumentOperationException("Library assembly was interrupted.", e);
+        } catch (ExecutionException e) {
+            cancelAll(constructs);
+            throw new DocumentOperationException("Library assembly failed: " + e.getCause().getMessage(), e.getCause());
         }
+        if (!cancelled && results.isEmpty()) {
+            throw new DocumentOperationException("None of the " + numConstructs + " combinations could be circularised.");
+        }
+        if (!cancelled && results.size() < numConstructs) {
+            metrics.addWarning((numConstructs - results.size()) + " of the " + numConstructs + " combinations could not be circularised and were left out.");
+        }
+        metrics.finish();
+        progress.setProgress(1.0);
+        for (DefaultNucleotideSequence construct : results) {
+            construct.setDescription(metrics.getSummary().replace("\n", "; "));
+        }
+        return DocumentUtilities.createAnnotatedPluginDocuments(results);
     }
 
     /**
-     * Ligates two selected sequences together, by calling the builtin ligation operation. Should return a single linear
-     * or circular sequence, or an empty list if ligation cannot happen because of incompatible ends.
-     * Circularises sequences by default if possible.
+     * Assembles one construct of a library.
      *
-     * @param destination
-     * @param insert
-     * @return
-     * @throws DocumentOperationException
+     * @param assembler The assembler of the library.
+     * @param slots The pools of parts, the destination vector first.
+     * @param combination The number of the combination. Taken modulo the size of each pool it selects one part per pool.
+     * @return The circular construct, or null if the combination does not close.
      */
-    private AnnotatedPluginDocument ligateSequences(AnnotatedPluginDocument destination, AnnotatedPluginDocument insert) throws DocumentOperationException {
-        final AnnotatedPluginDocument[] documents = new AnnotatedPluginDocument[] {destination, insert};
-        //Perform ligation
-        //Needed to get around AWT thread problems
-        final DocumentOperation ligate = PluginUtilities.getDocumentOperation("com.biomatters.plugins.cloning.LigateOperation");
-        final AtomicReference<Options> options = new AtomicReference<Options>();
-        ThreadUtilities.invokeNowOrWait(new Runnable() {
-            public void run() {
-                try {
-                    options.set(ligate.getOptions(documents));
-                } catch (DocumentOperationException e) {
-                    e.printStackTrace();
-                }
+    private DefaultNucleotideSequence assembleCombination(ConstructAssembler<NucleotideSequenceDocument, SequenceAnnotation> assembler, List<List<OverhangIndex.Entry<ConstructAssembler.Placed<NucleotideSequenceDocument>>>> slots, int combination) {
+        AssemblyPlanner<ConstructAssembler.Placed<NucleotideSequenceDocument>> planner = new AssemblyPlanner<ConstructAssembler.Placed<NucleotideSequenceDocument>>();
+        for (int i = 0; i < slots.size(); i++) {
+            List<OverhangIndex.Entry<ConstructAssembler.Placed<NucleotideSequenceDocument>>> pool = slots.get(i);
+            OverhangIndex.Entry<ConstructAssembler.Placed<NucleotideSequenceDocument>> part = pool.get(combination % pool.size());
+            combination /= pool.size();
+            if (i == 0) {
+                planner.setStart(part.getItem(), part.getLeftOverhang(), part.getRightOverhang());
+            } else {
+                planner.add(part.getItem(), part.getLeftOverhang(), part.getRightOverhang());
             }
-        });
-        if(isDoubleMatch(destination, insert)) {
-            options.get().getOption("circular").setValue(true);
-        } else {
-            options.get().getOption("circular").setValue(false);
         }
-        //Dialogs.showMessageDialog(options.get().getDescriptionAndState());
-        List<AnnotatedPluginDocument> results = ligate.performOperation(documents, ProgressListener.EMPTY, options.get());
-        if (results.size() > 1) { //The ligation did not happen for some reason.
+        AssemblyPlan<ConstructAssembler.Placed<NucleotideSequenceDocument>> plan = planner.plan();
+        if (!plan.isCircular()) {
+            metrics.addFailedAttempt();
             return null;
         }
-        return results.get(0);
+        return createSequence(assembler.ligate(plan));
     }
 
     /**
-     * Checks whether a list of plugin documents contains a document with matching overhangs to the target document. It
-     * also checks whether the overhangs are compatible only on one side, or two.
+     * Digests all the documents on the executor.
+     * The documents are independent of each other, so they are all digested at the same time, and all of them are
+     * +finished even if some fail, so every failure can be reported together.
      *
-     * @param destination The sequence we are trying to find a match to.
-     * @param inserts The sequences in which we are looking for a match.
-     * @return The first matching document it finds, or null if either there are no matching documents found, or the destination fragment is circular.
-     * @throws DocumentOperationException
+     * @param assembler The assembler digesting the documents.
+     * @param documents The documents to digest.
+     * @param progress Receives the progress of the digestion, from 0 up to maxProgress.
+     * @param maxProgress The share of the digestion in the progress of the whole operation.
+     * @return The digest of each document, in the order of the documents, or null if the progress listener was
+     *         +cancelled.
+     * @throws DocumentOperationException If any of the documents could not be digested. The message lists all of them.
      */
-    private AnnotatedPluginDocument findMatchingDocument(AnnotatedPluginDocument destination, List<AnnotatedPluginDocument> inserts) throws DocumentOperationException {
-        if (((NucleotideSequenceDocument)destination.getDocument()).isCircular()) {
-            return null; //Cannot find anything as we cannot ligate into a circular DNA.
-        }
-        List<SequenceAnnotation> destinationAnnotations = getFlankingOverhangs(destination);
-        for(AnnotatedPluginDocument insert : inserts) {
-            List<SequenceAnnotation> insertAnnotations = getFlankingOverhangs(insert);
-            for (SequenceAnnotation insAnnotation : insertAnnotations) {
-                for (SequenceAnnotation destAnnotation : destinationAnnotations) {
-                    if (insAnnotation.getQualifierValue("sequence").equalsIgnoreCase(destAnnotation.getQualifierValue("sequence"))
-                        && insAnnotation.getInterval().getDirection() != destAnnotation.getInterval().getDirection()) {
-                        return insert;
+    private List<DigestedPart> digestAll(final ConstructAssembler<NucleotideSequenceDocument, SequenceAnnotation> assembler, List<AnnotatedPluginDocument> documents, ProgressListener progress, double maxProgress) throws DocumentOperationException {
+        List<Future<DigestedPart>> digests = new ArrayList<Future<DigestedPart>>(documents.size());
+        for (final AnnotatedPluginDocument doc : documents) {
+            digests.add(executor.submit(new Callable<DigestedPart>() {
+                public DigestedPart call() throws DocumentOperationException {
+                    PluginDocument document = doc.getDocument();
+                    if (!(document instanceof NucleotideSequenceDocument)) {
+                        throw new DocumentOperationException(doc.getName() + " is not a nucleotide sequence.");
                     }
+                    NucleotideSequenceDocument sequence = (NucleotideSequenceDocument)document;
+                    return new DigestedPart(doc.getName(), sequence, assembler.digest(sequence));
+                }
+            }));
+        }
+
+        List<DigestedPart> results = new ArrayList<DigestedPart>(documents.size());
+        StringBuilder failures = new StringBuilder();
+        for (int i = 0; i < digests.size(); i++) {
+            progress.setMessage("Digesting " + documents.get(i).getName());
+            progress.setProgress(maxProgress * i / digests.size());
+            try {
+                if (!waitFor(digests.get(i), progress)) {
+                    cancelAll(digests);
+                    return null;
                 }
+                results.add(digests.get(i).get());
+            } catch (ExecutionException e) {
+                failures.append(documents.get(i).getName()).append(": ").append(e.getCause().getMessage()).append("\n");
+            } catch (InterruptedException e) {
+                cancelAll(digests);
+                throw new DocumentOperationException("Digestion was interrupted.", e);
             }
         }
-        return null; //If nothings is found.
+        if (failures.length() > 0) {
+            throw new DocumentOperationException("Could not digest:\n" + failures);
+        }
+        return results;
     }
 
     /**
-     * Find if the two selected documents can be ligated together at both sides. This is considered true, when the
-     * +overhangs at both ends are compatible with each other.
+     * Selects the needed fragments from each digested document.
      *
-     * @param destination
-     * @param insert
-     * @return True if the ligation of the sequences forms a circular sequence. False otherwise.
-     * @throws DocumentOperationException
+     * @return The needed fragments of each document, in the order of the documents.
+     * @throws DocumentOperationException If any of the documents has no such fragment. The message lists all of them.
      */
-    private boolean isDoubleMatch(AnnotatedPluginDocument destination, AnnotatedPluginDocument insert) throws DocumentOperationException {
-        List<SequenceAnnotation> destinationAnnotations = getFlankingOverhangs(destination);
-        List<SequenceAnnotation> insertAnnotations = getFlankingOverhangs(insert);
-        //Both lists will have a size of 2
-        LinkedList<SequenceAnnotation> matchingOverhangs = new LinkedList<SequenceAnnotation>();
-        for (SequenceAnnotation dAnno : destinationAnnotations) {
-            for (SequenceAnnotation iAnno : insertAnnotations) {
-                if (iAnno.getQualifierValue("sequence").equalsIgnoreCase(dAnno.getQualifierValue("sequence"))
-                        && iAnno.getInterval().getDirection() != dAnno.getInterval().getDirection()) {
-                    matchingOverhangs.add(iAnno);
-                    matchingOverhangs.add(dAnno);
-                }
+    private List<List<ConstructAssembler.Placed<NucleotideSequenceDocument>>> selectAll(ConstructAssembler<NucleotideSequenceDocument, SequenceAnnotation> assembler, List<DigestedPart> digested) throws DocumentOperationException {
+        List<List<ConstructAssembler.Placed<NucleotideSequenceDocument>>> results = new ArrayList<List<ConstructAssembler.Placed<NucleotideSequenceDocument>>>(digested.size());
+        StringBuilder failures = new StringBuilder();
+        for (DigestedPart part : digested) {
+            try {
+                results.add(assembler.selectFragments(part.document, part.digest));
+            } catch (AssemblyException e) {
+                failures.append(part.name).append(": ").append(e.getMessage()).append("\n");
             }
         }
-        //If there is a double match, all four flanking annotations should have been added to the list.
-        if (matchingOverhangs.containsAll(destinationAnnotations) && matchingOverhangs.containsAll(insertAnnotations)) {
-            return true;
+        if (failures.length() > 0) {
+            throw new DocumentOperationException("Could not digest:\n" + failures);
         }
-        return false;
+        return results;
     }
 
     /**
-     * Gets the two overhangs that flank the sequence.
-     * This is needed as a file can actually contain overhang annotations in the middle of the sequence as well.
+     * Waits for a task to finish, checking regularly whether the operation has been cancelled.
      *
-     * @param document
-     * @return
-     * @throws DocumentOperationException
+     * @return True if the task is done, false if the operation was cancelled first.
+     * @throws InterruptedException If the thread is interrupted while waiting.
      */
-    private List<SequenceAnnotation> getFlankingOverhangs(AnnotatedPluginDocument document) throws DocumentOperationException {
-        List<SequenceAnnotation> annotations = ((NucleotideSequenceDocument)document.getDocument()).getSequenceAnnotations();
-        String sequence = ((NucleotideSequenceDocument)document.getDocument()).getSequenceString();
-        int sequenceLength = ((NucleotideSequenceDocument)document.getDocument()).getSequenceLength();
-
-        annotations = SequenceUtilities.getAnnotationsOfType(annotations, SequenceAnnotation.TYPE_OVERHANG);
-
-        List<SequenceAnnotation> flankingOverhangs = new LinkedList<SequenceAnnotation>() {};
-        //TODO: Check if these are really stored this way. <- Seem to be.
-        for (SequenceAnnotation anno : annotations) {
-            SequenceAnnotationInterval overhangToAdd = null; //Reset for each annotation.
-            boolean isAtSequenceStart = true;
-            List<SequenceAnnotationInterval> intervals = anno.getIntervals();
-            for (SequenceAnnotationInterval interval : intervals) {
-                //Dialogs.showMessageDialog("Found interval = " + interval.getDirection() + ", " + interval.getLength() + ", " + interval.getFrom() + "\nSequence length = " + sequenceLength);
-                if (interval.getFrom() == 1 && interval.getDirection().isDirectedRight()) {
-                    overhangToAdd = interval;
-                }
-                if (interval.getFrom() == sequenceLength && interval.getDirection().isDirectedLeft()) {
-                    overhangToAdd = interval;
-                    isAtSequenceStart = false;
-                }
-                if (interval.getFrom() == sequenceLength - interval.getLength() + 1 && interval.getDirection().isDirectedRight()) {
-                    overhangToAdd = interval;
-                    isAtSequenceStart = false;
-                }
-                if (interval.getFrom() == interval.getLength() && interval.getDirection().isDirectedLeft()) {
-                    overhangToAdd = interval;
-                }
+    private boolean waitFor(Future<?> future, ProgressListener progress) throws InterruptedException {
+        while (!future.isDone()) {
+            if (progress.isCanceled()) {
+                return false;
             }
-            if (overhangToAdd != null) { //So we found something.
-                String overhangSequence;
-                List<SequenceAnnotationInterval> overhangIntervals = new LinkedList<SequenceAnnotationInterval>();
-                if (isAtSequenceStart) {
-                    overhangSequence = sequence.substring(0, overhangToAdd.getLength());
-                } else {
-                    overhangSequence = sequence.substring(sequenceLength - overhangToAdd.getLength());
-                }
-                while (!anno.getQualifierValue("sequence").equalsIgnoreCase("")) { //Make sure there are no earlier, or other such qualifiers on this annotations.
-                    anno.removeQualifier("sequence");
-                }
-                anno.addQualifier("sequence", overhangSequence);
-                overhangIntervals.add(overhangToAdd);
-                anno.setIntervals(overhangIntervals); //Make sure it only has one interval associated with it.
-                flankingOverhangs.add(anno);
-                //Dialogs.showMessageDialog("Found annotation to add:\n" + anno.getQualifierValue("Bases"));
+            try {
+                future.get(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                return true; //The failure is reported by the caller.
+            } catch (TimeoutException e) {
+                //Check for cancellation again.
             }
         }
-        if (flankingOverhangs.toArray().length != 2) {
-            Dialogs.showMessageDialog("Error if finding flanking overhangs for " + document.getName() + "\nFound " + flankingOverhangs.toArray().length + "intervals");
-            return null; //Somethings is wrong as there should always be two flanking overhangs in case of a cut sequence.
+        return !progress.isCanceled();
+    }
+
+    private void cancelAll(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(true);
         }
-        return flankingOverhangs;
+    }
+
+    private ConstructAssembler<NucleotideSequenceDocument, SequenceAnnotation> createAssembler(Enzyme enzyme) {
+        return new ConstructAssembler<NucleotideSequenceDocument, SequenceAnnotation>(enzyme, digestCache, metrics, new DocumentAdapter());
     }
 
     /**
-     *
-     * @param inputDocument
-     * @return
+     * Turns an assembled construct into a sequence document, named after its fragments. Only the free ends of a
+     * +linear construct are marked as overhangs.
      */
-    private AnnotatedPluginDocument cleanupAnnotations(AnnotatedPluginDocument inputDocument) {
-        List<SequenceAnnotation> annotations = null;
-        DefaultNucleotideSequence outputDocument = null;
-        try {
-            outputDocument = convertDocument(inputDocument);
-            annotations = outputDocument.getSequenceAnnotations();
-        } catch (DocumentOperationException e) {
-            e.printStackTrace();
-            return null;
+    private DefaultNucleotideSequence createSequence(ConstructAssembler.Construct<NucleotideSequenceDocument, SequenceAnnotation> construct) {
+        long start = System.nanoTime();
+        List<ConstructAssembler.Placed<NucleotideSequenceDocument>> parts = construct.getParts();
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < parts.size(); i++) {
+            name.append(i == 0 ? "" : " + ").append(parts.get(i).getName());
         }
-        List<SequenceAnnotation> toRemove;
-        toRemove = SequenceUtilities.getAnnotationsOfType(annotations, SequenceAnnotation.TYPE_CONCATENATED_SEQUENCE);
-        annotations.removeAll(toRemove);
-        outputDocument.setAnnotations(annotations);
-        outputDocument.setDescription(""); //Does this work?
-        return DocumentUtilities.createAnnotatedPluginDocument(outputDocument);
+        String sequence = construct.getSequence();
+        List<SequenceAnnotation> annotations = new ArrayList<SequenceAnnotation>(construct.getFeatures());
+        if (!construct.isCircular()) {
+            Overhang leftEnd = parts.get(0).getFragment().getLeftOverhang();
+            Overhang rightEnd = parts.get(parts.size() - 1).getFragment().getRightOverhang();
+            annotations.add(createOverhangAnnotation(leftEnd, 1));
+            annotations.add(createOverhangAnnotation(rightEnd, sequence.length() - rightEnd.length() + 1));
+        }
+
+        DefaultNucleotideSequence result = new DefaultNucleotideSequence(name.toString(), sequence);
+        result.setAnnotations(annotations);
+        result.setCircular(construct.isCircular());
+        result.setDescription("");
+        metrics.addTime(AssemblyMetrics.Stage.CLEANUP, start);
+        return result;
     }
 
     /**
+     * Creates the annotation marking the single stranded nucleotides at one end of a fragment.
+     * The direction of the annotation shows the strand the nucleotides are on.
      *
-     * @param inputDocument
-     * @return
+     * @param overhang The overhang to mark.
+     * @param from The 1 based position of the first overhang nucleotide on the fragment.
+     * @return The overhang annotation.
      */
-    private AnnotatedPluginDocument recalculateIntervals(AnnotatedPluginDocument inputDocument) {
-        List<SequenceAnnotation> annotations = null;
-        DefaultNucleotideSequence outputDocument = null;
-        try {
-            outputDocument = convertDocument(inputDocument);
-            annotations = outputDocument.getSequenceAnnotations();
-        } catch (DocumentOperationException e) {
-            e.printStackTrace();
-            return null;
+    private SequenceAnnotation createOverhangAnnotation(Overhang overhang, int from) {
+        SequenceAnnotation anno = new SequenceAnnotation("Overhang", SequenceAnnotation.TYPE_OVERHANG);
+        anno.addInterval(from, from + overhang.length() - 1, overhang.isTopStrand() ? SequenceAnnotationInterval.Direction.leftToRight : SequenceAnnotationInterval.Direction.rightToLeft);
+        return anno;
+    }
+
+    /**
+     * Moves the annotations of the documents onto the construct. Restriction sites are cut out of the construct and the
+     * +overhangs are ligated, so their annotations are not carried over, and neither are the marks of an earlier
+     * +concatenation. The annotations of each document are only indexed once. Each part is marked with a misc_feature,
+     * +the same as on the constructs of the command line tools.
+     */
+    private static final class DocumentAdapter implements ConstructAssembler.Adapter<NucleotideSequenceDocument, SequenceAnnotation> {
+        public String getName(NucleotideSequenceDocument part) {return part.getName();}
+
+        public CharSequence getSequence(NucleotideSequenceDocument part) {return part.getCharSequence();}
+
+        public boolean isCircular(NucleotideSequenceDocument part) {return part.isCircular();}
+
+        public void mapFeatures(NucleotideSequenceDocument part, Fragment fragment, int offset, int targetLength, boolean targetCircular, List<SequenceAnnotation> results) {
+            results.add(AnnotationMapper.markPart(part.getName(), offset, fragment.getLength() - fragment.getRightOverhang().length(), targetLength, targetCircular));
+            getMapper(part).map(fragment.getSourceStart(), fragment.getLength(), offset, targetLength, targetCircular, results);
         }
-        int sequenceLength = outputDocument.getSequenceString().length();
-        return null;
+
+        private synchronized AnnotationMapper getMapper(NucleotideSequenceDocument part) {
+            AnnotationMapper mapper = mappers.get(part);
+            if (mapper == null) {
+                mapper = new AnnotationMapper(part.getSequenceAnnotations(), part.getSequenceLength(), part.isCircular(), SequenceAnnotation.TYPE_RESTRICTION_SITE, SequenceAnnotation.TYPE_OVERHANG, SequenceAnnotation.TYPE_CONCATENATED_SEQUENCE);
+                mappers.put(part, mapper);
+            }
+            return mapper;
+        }
+
+        private final Map<NucleotideSequenceDocument, AnnotationMapper> mappers = new IdentityHashMap<NucleotideSequenceDocument, AnnotationMapper>();
+    }
+
+    //A document together with its digest, so the pre-flight check and the fragment selection share one digestion.
+    private static final class DigestedPart {
+        DigestedPart(String name, NucleotideSequenceDocument document, DigestCache.Digest digest) {
+            this.name = name;
+            this.document = document;
+            this.digest = digest;
+        }
+
+        final String name;
+        final NucleotideSequenceDocument document;
+        final DigestCache.Digest digest;
     }
 
-    private Enzyme enzyme; //Not used yet as only a single enzyme is supplied.
+    //The share of the digestion in the progress of an ordinary and of a library run.
+    private static final double DIGEST_PROGRESS = 0.5;
+    private static final double LIBRARY_DIGEST_PROGRESS = 0.2;
+    //How often a cancellation is checked for while waiting for the executor.
+    private static final long CANCEL_CHECK_MILLIS = 100;
+
+    //The largest library assembled in one run, to avoid filling up the memory by accident.
+    private static final int MAX_LIBRARY_SIZE = 10000;
+
+    private final ExecutorService executor;
+    private final DigestCache digestCache;
+    private volatile AssemblyMetrics metrics;
 }
@@ -0,0 +1,43 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+/**
+ * An annotation of a sequence read from or written to a sequence file, for use outside of Geneious.
+ * The feature covers the 0 based, half open range [start, end). On circular sequences the end can be past the end of
+ * +the sequence, for features spanning the origin. Features made of several pieces are read as one feature per piece,
+ * +all with the same name.
+ */
+public class SequenceFeature {
+
+    public SequenceFeature(String type, String name, int start, int end, boolean forward) {
+        this.type = type;
+        this.name = name;
+        this.start = start;
+        this.end = end;
+        this.forward = forward;
+    }
+
+    public String getType() {return type;}
+
+    public String getName() {return name;}
+
+    public int getStart() {return start;}
+
+    public int getEnd() {return end;}
+
+    public int getLength() {return end - start;}
+
+    public boolean isForward() {return forward;}
+
+    /**
+     * @return A copy of the feature moved by the given number of nucleotides.
+     */
+    public SequenceFeature moveBy(int offset) {
+        return new SequenceFeature(type, name, start + offset, end + offset, forward);
+    }
+
+    private final String type;
+    private final String name;
+    private final int start;
+    private final int end;
+    private final boolean forward;
+}
@@ -0,0 +1,402 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads GenBank and FASTA files outside of Geneious. The format is recognised from the first line of the file, and
+ * +files can hold any number of records.
+ * The file is memory mapped and read lazily. Going through the records only finds where each of them is in the file,
+ * +the features are parsed when they are first asked for, and the sequence is read straight from the mapped file
+ * +instead of being copied onto the heap. This works as long as the lines of a record are laid out evenly, which is
+ * +the case for files written by any usual tool. Otherwise the sequence is read into memory when it is first used.
+ * FASTA has no way of storing the topology, so FASTA records are taken to be circular (plasmids) unless their header
+ * +says "linear".
+ */
+public class SequenceFileReader implements Iterable<SequenceRecord> {
+
+    /**
+     * Maps a file for reading.
+     *
+     * @param file A GenBank or FASTA file.
+     * @throws IOException If the file cannot be read or is in neither format.
+     */
+    public SequenceFileReader(File file) throws IOException {
+        this.file = new MappedFile(file);
+        this.firstRecord = skipBlankLines(0);
+        if (firstRecord < this.file.length && !startsWith(firstRecord, ">") && !startsWith(firstRecord, "LOCUS")) {
+            throw new IOException(file + " is neither a GenBank nor a FASTA file.");
+        }
+    }
+
+    /**
+     * Reads all the records of a file. The records are still read lazily, so this only costs a few objects per record.
+     *
+     * @param file A GenBank or FASTA file.
+     * @return The records, in the order of the file.
+     * @throws IOException If the file cannot be read or is in neither format.
+     */
+    public static List<SequenceRecord> read(File file) throws IOException {
+        List<SequenceRecord> records = new ArrayList<SequenceRecord>();
+        for (SequenceRecord record : new SequenceFileReader(file)) {
+            records.add(record);
+        }
+        return records;
+    }
+
+    /**
+     * @return An iterator finding the records one after the other as it goes through the file.
+     */
+    public Iterator<SequenceRecord> iterator() {
+        return new Iterator<SequenceRecord>() {
+            public boolean hasNext() {
+                return position < file.length;
+            }
+
+            public SequenceRecord next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                SequenceRecord record;
+                if (file.get(position) == '>') {
+                    record = scanFasta(position);
+                } else {
+                    record = scanGenBank(position);
+                }
+                position = skipBlankLines(((MappedRecord)record).end);
+                return record;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            private long position = firstRecord;
+        };
+    }
+
+    private MappedRecord scanFasta(long start) {
+        long headerEnd = lineEnd(start);
+        String header = file.getString(start + 1, headerEnd).trim();
+        String name = header.indexOf(' ') > 0 ? header.substring(0, header.indexOf(' ')) : header;
+        boolean circular = !header.toLowerCase().contains("linear");
+        MappedSequence sequence = new MappedSequence();
+        long line = nextLine(headerEnd);
+        while (line < file.length && file.get(line) != '>') {
+            sequence.addLine(line, lineEnd(line));
+            line = nextLine(lineEnd(line));
+        }
+        return new MappedRecord(name, sequence, circular, -1, -1, line);
+    }
+
+    private MappedRecord scanGenBank(long start) {
+        long locusEnd = lineEnd(start);
+        String locus = file.getString(start, locusEnd);
+        String name = locus.substring(5).trim().split("\\s+")[0];
+        boolean circular = locus.contains(" circular");
+        long featuresStart = -1;
+        long featuresEnd = -1;
+        MappedSequence sequence = null;
+        long line = nextLine(locusEnd);
+        while (line < file.length && !startsWith(line, "//")) {
+            long end = lineEnd(line);
+            if (sequence != null) {
+                sequence.addLine(line, end);
+            } else if (startsWith(line, "FEATURES")) {
+                featuresStart = nextLine(end);
+            } else if (startsWith(line, "ORIGIN")) {
+                featuresEnd = featuresStart < 0 ? -1 : line;
+                sequence = new MappedSequence();
+            } else if (featuresStart >= 0 && featuresEnd < 0 && line > featuresStart && file.get(line) != ' ') {
+                featuresEnd = line; //Another section (eg. CONTIG) follows the features.
+            }
+            line = nextLine(end);
+        }
+        if (sequence == null) {
+            sequence = new MappedSequence();
+        }
+        return new MappedRecord(name, sequence, circular, featuresStart, featuresEnd, line < file.length ? nextLine(lineEnd(line)) : line);
+    }
+
+    /**
+     * Reads the FEATURES table of a GenBank record.
+     */
+    private List<SequenceFeature> parseFeatures(long start, long end, int sequenceLength, boolean circular) {
+        List<SequenceFeature> features = new ArrayList<SequenceFeature>();
+        StringBuilder feature = null;
+        String featureKey = null;
+        for (long line = start; line < end; line = nextLine(lineEnd(line))) {
+            String text = file.getString(line, lineEnd(line));
+            if (text.length() <= 21) {
+                continue;
+            }
+            if (text.charAt(5) != ' ') { //A new feature starts.
+                addFeature(features, featureKey, feature, sequenceLength, circular);
+                featureKey = text.substring(5, 21).trim();
+                feature = new StringBuilder(text.substring(21).trim());
+            } else if (feature != null) {
+                String content = text.substring(21).trim();
+                feature.append(content.startsWith("/") ? "\n" : "").append(content);
+            }
+        }
+        addFeature(features, featureKey, feature, sequenceLength, circular);
+        return features;
+    }
+
+    private void addFeature(List<SequenceFeature> features, String key, StringBuilder text, int sequenceLength, boolean circular) {
+        if (text != null) {
+            features.addAll(parseFeature(key, text.toString(), sequenceLength, circular));
+        }
+    }
+
+    /**
+     * Reads a feature from the FEATURES table of a GenBank file.
+     * A location joining several pieces, as in join(1..10,20..30), gives one feature per piece, all with the same
+     * +name. Only two pieces meeting at the origin of a circular sequence are read as a single feature spanning it.
+     *
+     * @param key The feature key, eg. CDS.
+     * @param text The location followed by the qualifiers, one per line.
+     * @return The pieces of the feature, in the order of the location. Empty if the location cannot be read.
+     */
+    static List<SequenceFeature> parseFeature(String key, String text, int sequenceLength, boolean circular) {
+        String[] lines = text.split("\n");
+        String location = lines[0];
+        String name = null;
+        for (int q = 0; q < NAME_QUALIFIERS.length && name == null; q++) { //The first qualifier by preference wins.
+            for (int i = 1; i < lines.length && name == null; i++) {
+                if (lines[i].startsWith("/" + NAME_QUALIFIERS[q] + "=")) {
+                    name = lines[i].substring(NAME_QUALIFIERS[q].length() + 2).replace("\"", "");
+                }
+            }
+        }
+        if (name == null) {
+            name = key;
+        }
+        List<SequenceFeature> pieces = new ArrayList<SequenceFeature>(1);
+        Matcher matcher = RANGE.matcher(location);
+        while (matcher.find()) {
+            int from = Integer.parseInt(matcher.group(1));
+            int to = matcher.group(2) == null ? from : Integer.parseInt(matcher.group(2));
+            //Either the whole location or just this piece can be on the other strand.
+            boolean forward = !location.startsWith("complement") && !location.startsWith("complement(", matcher.start() - "complement(".length());
+            SequenceFeature previous = pieces.isEmpty() ? null : pieces.get(pieces.size() - 1);
+            if (circular && from == 1 && previous != null && previous.getEnd() == sequenceLength && previous.isForward() == forward) {
+                //The previous piece continues over the origin.
+                pieces.set(pieces.size() - 1, new SequenceFeature(key, name, previous.getStart(), sequenceLength + to, forward));
+            } else {
+                pieces.add(new SequenceFeature(key, name, from - 1, to, forward));
+            }
+        }
+        return pieces;
+    }
+
+    private boolean startsWith(long position, String prefix) {
+        if (position + prefix.length() > file.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (file.get(position + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //The position of the line break ending the line, or the end of the file.
+    private long lineEnd(long position) {
+        while (position < file.length && file.get(position) != '\n') {
+            position++;
+        }
+        return position;
+    }
+
+    private long nextLine(long lineEnd) {
+        return Math.min(lineEnd + 1, file.length);
+    }
+
+    private long skipBlankLines(long position) {
+        while (position < file.length && Character.isWhitespace(file.get(position))) {
+            position++;
+        }
+        return position;
+    }
+
+    /**
+     * A record whose sequence is read from the mapped file and whose features are parsed on demand.
+     */
+    private final class MappedRecord extends SequenceRecord {
+        MappedRecord(String name, MappedSequence sequence, boolean circular, long featuresStart, long featuresEnd, long end) {
+            super(name, sequence, circular, null);
+            this.featuresStart = featuresStart;
+            this.featuresEnd = featuresEnd;
+            this.end = end;
+        }
+
+        @Override
+        public synchronized List<SequenceFeature> getFeatures() {
+            if (features == null) {
+                features = featuresStart < 0 ? new ArrayList<SequenceFeature>() : parseFeatures(featuresStart, featuresEnd, getLength(), isCircular());
+            }
+            return features;
+        }
+
+        private final long featuresStart;
+        private final long featuresEnd;
+        private final long end; //Where the next record can start.
+        private List<SequenceFeature> features;
+    }
+
+    /**
+     * The sequence of a record, read from the mapped file. The first line holding nucleotides gives the layout: where
+     * +the sequence starts, the columns holding nucleotides and the length of the line (including a \r before the line
+     * +break). Blank lines before it are skipped. If every other line has the same layout (the last one can be
+     * +shorter), the file position of any nucleotide can be worked out directly.
+     */
+    private final class MappedSequence implements CharSequence {
+        //Adds the next line of the sequence, ending at the line break at end.
+        void addLine(long line, long end) {
+            int bases = 0;
+            for (long i = line; i < end; i++) {
+                if (isBase(file.get(i))) {
+                    bases++;
+                }
+            }
+            if (bases == 0) {
+                if (length > 0) {
+                    trailingBlank = true;
+                }
+                return;
+            }
+            if (columns == null) {
+                start = line;
+                columns = new int[bases];
+                int column = 0;
+                for (long i = line; i < end; i++) {
+                    if (isBase(file.get(i))) {
+                        columns[column++] = (int)(i - line);
+                    }
+                }
+                lineLength = end + 1 - line;
+            } else if (lastLineShort || trailingBlank || bases > columns.length || (bases == columns.length && end + 1 - line != lineLength)) {
+                regular = false;
+            } else if (bases < columns.length) {
+                lastLineShort = true;
+            }
+            lastEnd = end;
+            length += bases;
+        }
+
+        public int length() {
+            return (int)length;
+        }
+
+        public char charAt(int index) {
+            if (!regular) {
+                return getCopy().charAt(index);
+            }
+            long line = index / columns.length;
+            return (char)file.get(start + line * lineLength + columns[index % columns.length]);
+        }
+
+        public CharSequence subSequence(int from, int to) {
+            if (!regular) {
+                return getCopy().substring(from, to);
+            }
+            StringBuilder builder = new StringBuilder(to - from);
+            for (int i = from; i < to; i++) {
+                builder.append(charAt(i));
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, length()).toString();
+        }
+
+        //Reads the whole sequence into memory, for records whose lines are not laid out evenly.
+        private synchronized String getCopy() {
+            if (copy == null) {
+                StringBuilder builder = new StringBuilder((int)length);
+                for (long i = start; i < lastEnd; i++) {
+                    if (isBase(file.get(i))) {
+                        builder.append((char)file.get(i));
+                    }
+                }
+                copy = builder.toString();
+            }
+            return copy;
+        }
+
+        private boolean isBase(byte b) {
+            return (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z');
+        }
+
+        private long start; //The first line holding nucleotides.
+        private long length = 0;
+        private int[] columns; //The columns of the nucleotides within a line.
+        private long lineLength; //Including the line break.
+        private long lastEnd;
+        private boolean lastLineShort = false;
+        private boolean trailingBlank = false;
+        private boolean regular = true;
+        private String copy;
+    }
+
+    /**
+     * A file mapped into memory in pieces of at most 1 GB, so files larger than 2 GB can be read too.
+     */
+    private static final class MappedFile {
+        MappedFile(File file) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                FileChannel channel = randomAccessFile.getChannel();
+                length = channel.size();
+                chunks = new MappedByteBuffer[(int)((length + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+                for (int i = 0; i < chunks.length; i++) {
+                    long offset = (long)i * CHUNK_SIZE;
+                    chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(CHUNK_SIZE, length - offset));
+                }
+            } finally {
+                randomAccessFile.close(); //The mapping stays valid after the file is closed.
+            }
+        }
+
+        byte get(long position) {
+            return chunks[(int)(position >>> CHUNK_BITS)].get((int)(position & (CHUNK_SIZE - 1)));
+        }
+
+        String getString(long from, long to) {
+            StringBuilder builder = new StringBuilder((int)(to - from));
+            for (long i = from; i < to; i++) {
+                byte b = get(i);
+                if (b != '\r') {
+                    builder.append((char)b);
+                }
+            }
+            return builder.toString();
+        }
+
+        private static final int CHUNK_BITS = 30;
+        private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+        final long length;
+        private final MappedByteBuffer[] chunks;
+    }
+
+    //The qualifiers used as the name of a feature, in order of preference.
+    private static final String[] NAME_QUALIFIERS = {"label", "gene", "product", "note"};
+    private static final Pattern RANGE = Pattern.compile("[<>]?(\\d+)(?:\\.\\.[<>]?(\\d+))?");
+
+    private final MappedFile file;
+    private final long firstRecord;
+}
@@ -0,0 +1,54 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Writes sequence records as GenBank or FASTA outside of Geneious.
+ */
+public class SequenceFileWriter {
+
+    public static void writeGenBank(SequenceRecord record, Writer out) throws IOException {
+        int length = record.getLength();
+        String date = new SimpleDateFormat("dd-MMM-yyyy", Locale.ENGLISH).format(new Date()).toUpperCase();
+        out.write(String.format("LOCUS       %-16s %11d bp    DNA     %-8s SYN %s\n", record.getName().replace(' ', '_'), length, record.isCircular() ? "circular" : "linear", date));
+        out.write("DEFINITION  " + record.getName() + ".\n");
+        out.write("FEATURES             Location/Qualifiers\n");
+        for (SequenceFeature feature : record.getFeatures()) {
+            String location;
+            if (feature.getEnd() > length) {
+                location = "join(" + (feature.getStart() + 1) + ".." + length + ",1.." + (feature.getEnd() - length) + ")";
+            } else {
+                location = (feature.getStart() + 1) + ".." + feature.getEnd();
+            }
+            if (!feature.isForward()) {
+                location = "complement(" + location + ")";
+            }
+            out.write(String.format("     %-16s%s\n", feature.getType(), location));
+            out.write("                     /label=\"" + feature.getName().replace("\"", "'") + "\"\n");
+        }
+        out.write("ORIGIN\n");
+        CharSequence sequence = record.getSequence();
+        for (int i = 0; i < length; i += 60) {
+            out.write(String.format("%9d", i + 1));
+            for (int j = i; j < Math.min(i + 60, length); j += 10) {
+                out.write(' ');
+                out.write(sequence.subSequence(j, Math.min(j + 10, length)).toString().toLowerCase());
+            }
+            out.write('\n');
+        }
+        out.write("//\n");
+    }
+
+    public static void writeFasta(SequenceRecord record, Writer out) throws IOException {
+        out.write(">" + record.getName() + (record.isCircular() ? "" : " linear") + "\n");
+        CharSequence sequence = record.getSequence();
+        for (int i = 0; i < record.getLength(); i += 70) {
+            out.write(sequence.subSequence(i, Math.min(i + 70, record.getLength())).toString());
+            out.write('\n');
+        }
+    }
+}
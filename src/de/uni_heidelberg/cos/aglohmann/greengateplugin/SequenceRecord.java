@@ -0,0 +1,31 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.List;
+
+/**
+ * A sequence read from or written to a sequence file, for use outside of Geneious.
+ */
+public class SequenceRecord {
+
+    public SequenceRecord(String name, CharSequence sequence, boolean circular, List<SequenceFeature> features) {
+        this.name = name;
+        this.sequence = sequence;
+        this.circular = circular;
+        this.features = features;
+    }
+
+    public String getName() {return name;}
+
+    public CharSequence getSequence() {return sequence;}
+
+    public int getLength() {return sequence.length();}
+
+    public boolean isCircular() {return circular;}
+
+    public List<SequenceFeature> getFeatures() {return features;}
+
+    private final String name;
+    private final CharSequence sequence;
+    private final boolean circular;
+    private final List<SequenceFeature> features;
+}
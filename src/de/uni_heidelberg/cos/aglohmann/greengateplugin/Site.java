@@ -0,0 +1,61 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+/**
+ * A single recognition site of an enzyme found on a sequence, together with the position of the cuts it leads to.
+ * Positions are 0 based indices into the top strand of the sequence that was searched. Cut positions are the index of
+ * the first nucleotide after the cut, so they can fall outside of the sequence if the site is close to one of its ends.
+ */
+public class Site {
+
+    public Site(Enzyme enzyme, int position, boolean forward) {
+        this.enzyme = enzyme;
+        this.position = position;
+        this.forward = forward;
+    }
+
+    public Enzyme getEnzyme() {return enzyme;}
+
+    /**
+     * @return The index of the first nucleotide of the recognition site on the top strand.
+     */
+    public int getPosition() {return position;}
+
+    /**
+     * @return True if the site was found on the top strand, false if it was found on the bottom strand. (ie. The
+     * +reverse recognition site was found on the top strand.)
+     */
+    public boolean isForward() {return forward;}
+
+    public int getLength() {return enzyme.recognitionSite().length();}
+
+    /**
+     * @return The position of the cut on the top strand.
+     */
+    public int getTopCut() {
+        if (forward) {
+            return position + enzyme.cutSite();
+        } else {
+            return getBottomCut() - enzyme.overhang();
+        }
+    }
+
+    /**
+     * @return The position of the cut on the bottom strand, given in top strand coordinates.
+     */
+    public int getBottomCut() {
+        if (forward) {
+            return getTopCut() + enzyme.overhang();
+        } else {
+            return position + getLength() - enzyme.cutSite();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return enzyme.dispName() + (forward ? " site at " : " reverse site at ") + (position + 1);
+    }
+
+    private final Enzyme enzyme;
+    private final int position;
+    private final boolean forward;
+}
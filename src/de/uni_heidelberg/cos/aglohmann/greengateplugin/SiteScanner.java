@@ -0,0 +1,146 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Finds the forward and reverse recognition sites of one or more enzymes in a single pass over a sequence.
+ * Every recognition site is compiled once into a 2 bit per nucleotide code. While scanning, the code of the last
+ * +nucleotides is kept up to date in a long, so each position is checked by comparing numbers, without copying the
+ * +sequence or changing its case. Any nucleotide other than A, C, G or T (U) breaks the match.
+ * Circular sequences are scanned on past their end into the first nucleotides again, read through the same
+ * +CharSequence, so sites spanning the origin are found without joining copies of the sequence.
+ */
+public class SiteScanner {
+
+    public SiteScanner(Enzyme... enzymes) {
+        List<Pattern> patternList = new ArrayList<Pattern>();
+        for (Enzyme enzyme : enzymes) {
+            long forwardCode = encode(enzyme.recognitionSite());
+            long reverseCode = encode(enzyme.revRecSite());
+            patternList.add(new Pattern(enzyme, forwardCode, true));
+            if (reverseCode != forwardCode) { //Palindromic sites are only reported once.
+                patternList.add(new Pattern(enzyme, reverseCode, false));
+            }
+        }
+        patterns = patternList.toArray(new Pattern[patternList.size()]);
+        int[] lengthList = new int[patterns.length];
+        for (int i = 0; i < patterns.length; i++) {
+            lengthList[i] = patterns[i].length;
+        }
+        Arrays.sort(lengthList);
+        int distinct = 0;
+        for (int i = 0; i < lengthList.length; i++) {
+            if (i == 0 || lengthList[i] != lengthList[i - 1]) {
+                lengthList[distinct++] = lengthList[i];
+            }
+        }
+        lengths = Arrays.copyOf(lengthList, distinct);
+        maxLength = distinct == 0 ? 0 : lengths[distinct - 1];
+    }
+
+    /**
+     * Scans a linear sequence for the recognition sites.
+     *
+     * @param sequence The nucleotide sequence to scan. Upper and lower case are treated the same.
+     * @return The sites found, ordered by their position.
+     */
+    public List<Site> scan(CharSequence sequence) {
+        return scan(sequence, false);
+    }
+
+    /**
+     * Scans a sequence for the recognition sites.
+     *
+     * @param sequence The nucleotide sequence to scan. Upper and lower case are treated the same.
+     * @param circular Whether the sequence is circular. Sites spanning the origin are then found too, at the position
+     *                 +of their first nucleotide before the origin.
+     * @return The sites found, ordered by their position.
+     */
+    public List<Site> scan(CharSequence sequence, boolean circular) {
+        List<Site> sites = new ArrayList<Site>();
+        int length = sequence.length();
+        //On a circular sequence the window is moved on over the origin until every site starting before it is seen.
+        int end = circular && length > 0 ? length + maxLength - 1 : length;
+        long window = 0; //The codes of the last nucleotides, the latest one in the lowest two bits.
+        int valid = 0; //How many of the last nucleotides were proper bases.
+        for (int i = 0; i < end; i++) {
+            int code = codeOf(sequence.charAt(i < length ? i : i % length));
+            if (code < 0) {
+                valid = 0;
+                continue;
+            }
+            window = (window << 2) | code;
+            if (valid < maxLength) {
+                valid++;
+            }
+            for (Pattern pattern : patterns) {
+                int position = i - pattern.length + 1;
+                if (pattern.length <= valid && (window & pattern.mask) == pattern.code && position < length) {
+                    sites.add(new Site(pattern.enzyme, position, pattern.forward));
+                }
+            }
+        }
+        if (lengths.length > 1) { //Sites of different lengths are found in the order of their end.
+            Collections.sort(sites, POSITION_ORDER);
+        }
+        return sites;
+    }
+
+    private static int codeOf(char base) {
+        return base < CODES.length ? CODES[base] : -1;
+    }
+
+    private static long encode(String site) {
+        if (site.length() > 32) {
+            throw new IllegalArgumentException("Recognition site " + site + " is too long.");
+        }
+        long code = 0;
+        for (int i = 0; i < site.length(); i++) {
+            int base = codeOf(site.charAt(i));
+            if (base < 0) {
+                throw new IllegalArgumentException("Recognition site " + site + " contains ambiguous nucleotides.");
+            }
+            code = (code << 2) | base;
+        }
+        return code;
+    }
+
+    private static final class Pattern {
+        Pattern(Enzyme enzyme, long code, boolean forward) {
+            this.enzyme = enzyme;
+            this.code = code;
+            this.forward = forward;
+            this.length = enzyme.recognitionSite().length();
+            this.mask = length == 32 ? -1L : (1L << (2 * length)) - 1;
+        }
+
+        final Enzyme enzyme;
+        final long code;
+        final long mask;
+        final int length;
+        final boolean forward;
+    }
+
+    private static final byte[] CODES = new byte[128];
+    static {
+        Arrays.fill(CODES, (byte)-1);
+        CODES['A'] = CODES['a'] = 0;
+        CODES['C'] = CODES['c'] = 1;
+        CODES['G'] = CODES['g'] = 2;
+        CODES['T'] = CODES['t'] = CODES['U'] = CODES['u'] = 3;
+    }
+
+    private static final Comparator<Site> POSITION_ORDER = new Comparator<Site>() {
+        public int compare(Site s1, Site s2) {
+            return s1.getPosition() - s2.getPosition();
+        }
+    };
+
+    private final Pattern[] patterns;
+    private final int[] lengths;
+    private final int maxLength;
+}
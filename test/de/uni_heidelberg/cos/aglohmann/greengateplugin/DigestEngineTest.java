@@ -0,0 +1,158 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the digestion on plain sequences, without Geneious.
+ * The parts are written out by hand: a BsaI site (GGTCTC) cuts 1 and 5 nucleotides after itself, so a forward site
+ * +at p leaves the overhang at p + 7 to p + 11, and a reverse site (GAGACC) at p leaves it at p - 5 to p - 1.
+ */
+public class DigestEngineTest {
+
+    @Test
+    public void linearPartGivesThreeFragments() {
+        List<Fragment> fragments = engine.digest(PART, false);
+        assertEquals(3, fragments.size());
+
+        Fragment left = fragments.get(0);
+        assertEquals(0, left.getSourceStart());
+        assertNull(left.getLeftOverhang());
+        assertEquals("ACCT", left.getRightOverhang().getSequence());
+        assertEquals(1, left.getSites().size());
+
+        Fragment insert = fragments.get(1);
+        assertEquals("ACCT" + INSERT + "AACA", insert.getSequence());
+        assertEquals(11, insert.getSourceStart());
+        assertFalse(insert.containsSite());
+        assertEquals("ACCT", insert.getLeftOverhang().getSequence());
+        assertEquals("AACA", insert.getRightOverhang().getSequence());
+
+        Fragment right = fragments.get(2);
+        assertEquals(PART.length(), right.getSourceEnd());
+        assertNull(right.getRightOverhang());
+        assertEquals(1, right.getSites().size());
+    }
+
+    @Test
+    public void overhangsAreOnOppositeStrandsAcrossACut() {
+        List<Fragment> fragments = engine.digest(PART, false);
+        //5' overhangs: the fragment left of a cut keeps the bottom strand, the one right of it the top strand.
+        assertFalse(fragments.get(0).getRightOverhang().isTopStrand());
+        assertTrue(fragments.get(1).getLeftOverhang().isTopStrand());
+        assertTrue(fragments.get(0).getRightOverhang().matches(fragments.get(1).getLeftOverhang()));
+        assertFalse(fragments.get(1).getRightOverhang().isTopStrand());
+        assertTrue(fragments.get(2).getLeftOverhang().isTopStrand());
+        assertTrue(fragments.get(1).getRightOverhang().matches(fragments.get(2).getLeftOverhang()));
+    }
+
+    @Test
+    public void circularPartGivesInsertAndBackbone() {
+        List<Fragment> fragments = engine.digest(PART, true);
+        assertEquals(2, fragments.size());
+        assertEquals("ACCT" + INSERT + "AACA", fragments.get(0).getSequence());
+        assertFalse(fragments.get(0).containsSite());
+
+        Fragment backbone = fragments.get(1);
+        assertTrue(backbone.spansOrigin());
+        assertEquals(25, backbone.getSourceStart());
+        assertEquals(PART.length() + 15, backbone.getSourceEnd());
+        assertEquals(2, backbone.getSites().size());
+        assertEquals("AACA", backbone.getLeftOverhang().getSequence());
+        assertEquals("ACCT", backbone.getRightOverhang().getSequence());
+    }
+
+    @Test
+    public void siteSpanningTheOriginStillCuts() {
+        String rotated = PART.substring(7) + PART.substring(0, 7); //The forward site now starts 3 before the origin.
+        List<Fragment> fragments = engine.digest(rotated, true);
+        assertEquals(2, fragments.size());
+        assertEquals("ACCT" + INSERT + "AACA", fragments.get(0).getSequence());
+        assertEquals(4, fragments.get(0).getSourceStart());
+    }
+
+    @Test
+    public void uncutSequenceIsOneFragment() {
+        List<Fragment> fragments = engine.digest(INSERT, true);
+        assertEquals(1, fragments.size());
+        assertEquals(INSERT, fragments.get(0).getSequence());
+        assertNull(fragments.get(0).getLeftOverhang());
+        assertNull(fragments.get(0).getRightOverhang());
+    }
+
+    @Test
+    public void cutsOfBothStrandsAreFound() {
+        List<Site> sites = engine.findSites(PART, false);
+        assertEquals(2, sites.size());
+        assertTrue(sites.get(0).isForward());
+        assertFalse(sites.get(1).isForward());
+
+        List<DigestEngine.Cut> cuts = engine.getCuts(PART, sites, false);
+        assertEquals(2, cuts.size());
+        assertEquals(11, cuts.get(0).start);
+        assertEquals(4, cuts.get(0).length);
+        assertTrue(cuts.get(0).fivePrime);
+        assertEquals(25, cuts.get(1).start);
+        assertEquals(4, cuts.get(1).length);
+        assertTrue(cuts.get(1).fivePrime);
+    }
+
+    @Test
+    public void overlappingCutIsDropped() {
+        //The reverse site cuts at 9 to 13, inside the cut of the forward site at 7 to 11.
+        String sequence = "GGTCTC" + "AAAAAAAA" + "GAGACC" + "AAAAAAAAAA";
+        List<Site> sites = engine.findSites(sequence, false);
+        assertEquals(2, sites.size());
+        List<DigestEngine.Cut> cuts = engine.getCuts(sequence, sites, false);
+        assertEquals(1, cuts.size());
+        assertEquals(7, cuts.get(0).start);
+        assertEquals(2, engine.digest(sequence, false).size());
+    }
+
+    @Test
+    public void overlappingCutAcrossTheOriginIsDropped() {
+        //Circular: the last cut reaches over the origin into the first one.
+        String sequence = "AAAAGAGACC" + "AAAAAAAAAAAAAAAAAAAA" + "GGTCTC" + "A";
+        List<Site> sites = engine.findSites(sequence, true);
+        assertEquals(2, sites.size());
+        List<DigestEngine.Cut> cuts = engine.getCuts(sequence, sites, true);
+        assertEquals(1, cuts.size());
+        assertEquals(1, engine.digest(sequence, true).size());
+    }
+
+    @Test
+    public void cutOutsideALinearSequenceIsDropped() {
+        String sequence = "AAAAGGTCTCAA";
+        List<Site> sites = engine.findSites(sequence, false);
+        assertEquals(1, sites.size());
+        assertTrue(engine.getCuts(sequence, sites, false).isEmpty());
+        List<Fragment> fragments = engine.digest(sequence, false);
+        assertEquals(1, fragments.size());
+        assertTrue(fragments.get(0).containsSite());
+    }
+
+    @Test
+    public void threePrimeOverhangsKeepTheirStrands() {
+        //The same site cutting the other way round leaves 3' overhangs.
+        DigestEngine reverse = new DigestEngine(new Enzyme("Test", "GGTCTC(5/1)"));
+        List<DigestEngine.Cut> cuts = reverse.getCuts(PART, reverse.findSites(PART, false), false);
+        assertEquals(2, cuts.size());
+        assertFalse(cuts.get(0).fivePrime);
+        List<Fragment> fragments = reverse.digest(PART, false);
+        assertTrue(fragments.get(0).getRightOverhang().isTopStrand());
+        assertFalse(fragments.get(1).getLeftOverhang().isTopStrand());
+        assertTrue(fragments.get(0).getRightOverhang().matches(fragments.get(1).getLeftOverhang()));
+    }
+
+    private static final String INSERT = "TTGCATTGCA";
+    //A forward site at 4 cuts ACCT at 11, a reverse site at 30 cuts AACA at 25.
+    private static final String PART = "AAAA" + "GGTCTC" + "A" + "ACCT" + INSERT + "AACA" + "T" + "GAGACC" + "AAAA";
+
+    private final DigestEngine engine = new DigestEngine(new Enzyme("BsaI", "GGTCTC(1/5)"));
+}
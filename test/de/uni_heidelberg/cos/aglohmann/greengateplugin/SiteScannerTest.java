@@ -0,0 +1,89 @@
+package de.uni_heidelberg.cos.aglohmann.greengateplugin;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests the scan for recognition sites on plain sequences, without Geneious.
+ */
+public class SiteScannerTest {
+
+    @Test
+    public void siteAtTheStartIsFound() {
+        List<Site> sites = scanner.scan("GGTCTC" + FILLER);
+        assertEquals(1, sites.size());
+        assertEquals(0, sites.get(0).getPosition());
+        assertTrue(sites.get(0).isForward());
+    }
+
+    @Test
+    public void siteAtTheEndIsFound() {
+        List<Site> sites = scanner.scan(FILLER + "GAGACC");
+        assertEquals(1, sites.size());
+        assertEquals(FILLER.length(), sites.get(0).getPosition());
+        assertFalse(sites.get(0).isForward());
+    }
+
+    @Test
+    public void siteSpanningTheOriginIsOnlyFoundOnCircularSequences() {
+        String sequence = "TCTC" + FILLER + "GGTC";
+        List<Site> sites = scanner.scan(sequence, true);
+        assertEquals(1, sites.size());
+        assertEquals(sequence.length() - 4, sites.get(0).getPosition());
+        assertTrue(sites.get(0).isForward());
+        assertTrue(scanner.scan(sequence, false).isEmpty());
+    }
+
+    @Test
+    public void lowerCaseIsFound() {
+        List<Site> sites = scanner.scan(FILLER.toLowerCase() + "ggtctc" + "gaGAcc");
+        assertEquals(2, sites.size());
+        assertEquals(FILLER.length(), sites.get(0).getPosition());
+        assertTrue(sites.get(0).isForward());
+        assertEquals(FILLER.length() + 6, sites.get(1).getPosition());
+        assertFalse(sites.get(1).isForward());
+    }
+
+    @Test
+    public void ambiguousNucleotideBreaksTheSite() {
+        assertTrue(scanner.scan(FILLER + "GGTNTC" + FILLER).isEmpty());
+    }
+
+    @Test
+    public void everyBundledEnzymeIsFoundOnBothStrands() {
+        for (Enzyme enzyme : EnzymeRegistry.getInstance().getEnzymes()) {
+            String sequence = FILLER + enzyme.recognitionSite() + FILLER + enzyme.revRecSite() + FILLER;
+            List<Site> sites = enzyme.scanner().scan(sequence);
+            assertEquals(enzyme.dispName(), 2, sites.size());
+            assertSame(enzyme, sites.get(0).getEnzyme());
+            assertEquals(enzyme.dispName(), FILLER.length(), sites.get(0).getPosition());
+            assertTrue(enzyme.dispName(), sites.get(0).isForward());
+            assertEquals(enzyme.dispName(), 2 * FILLER.length() + enzyme.recognitionSite().length(), sites.get(1).getPosition());
+            assertFalse(enzyme.dispName(), sites.get(1).isForward());
+        }
+    }
+
+    @Test
+    public void sitesOfSeveralEnzymesAreOrderedByPosition() {
+        List<Enzyme> enzymes = EnzymeRegistry.getInstance().getEnzymes();
+        StringBuilder sequence = new StringBuilder(FILLER);
+        for (Enzyme enzyme : enzymes) {
+            sequence.append(enzyme.recognitionSite()).append(FILLER);
+        }
+        List<Site> sites = new SiteScanner(enzymes.toArray(new Enzyme[enzymes.size()])).scan(sequence);
+        assertTrue(sites.size() >= enzymes.size());
+        for (int i = 1; i < sites.size(); i++) {
+            assertTrue(sites.get(i - 1).getPosition() <= sites.get(i).getPosition());
+        }
+    }
+
+    private static final String FILLER = "AAAAAAAAAA";
+
+    private final SiteScanner scanner = new Enzyme("BsaI", "GGTCTC(1/5)").scanner();
+}